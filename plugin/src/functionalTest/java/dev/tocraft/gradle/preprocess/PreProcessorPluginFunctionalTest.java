@@ -12,13 +12,17 @@ import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.Writer;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import static org.gradle.internal.impldep.org.junit.Assert.assertEquals;
+import static org.gradle.internal.impldep.org.junit.Assert.assertTrue;
 
 /**
  * A simple functional test for the 'org.example.greeting' plugin.
@@ -184,6 +188,224 @@ class PreProcessorPluginFunctionalTest {
                         "}\n", new String(Files.readAllBytes(getTestJsonFile().toPath())));
     }
 
+    @Test
+    void testProcessResources() throws IOException {
+        writeString(getTestJsonFile(),
+                "{\n" +
+                        "//#if a\n" +
+                        "//$$ \"test\": \"123\"\n" +
+                        "//#else\n" +
+                        "\"test\": \"456\"\n" +
+                        "//#endif\n" +
+                        "}\n"
+        );
+
+        // a different version of the same file in a second resource folder, the first folder wins
+        writeString(new File(projectDir, "src/main/extraResources/test.json5"), "{\n\"test\": \"789\"\n}\n");
+
+        GradleRunner runner = setupGradle();
+        Files.write(getBuildFile().toPath(), ("sourceSets.main.resources.srcDir('src/main/extraResources')\n" +
+                "processResources {\n" +
+                "duplicatesStrategy = DuplicatesStrategy.INCLUDE\n" +
+                "eachFile { println(\"Copied: \" + it.relativePath) }\n" +
+                "}\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        // Run the resources build
+        runner.withArguments("processResources");
+        BuildResult resourcesResult = runner.build();
+
+        // Verify the result
+        for (BuildTask task : resourcesResult.getTasks()) {
+            assertEquals(TaskOutcome.SUCCESS, task.getOutcome());
+        }
+
+        // the original resources are skipped, so the file is copied once
+        String[] copied = resourcesResult.getOutput().split("Copied: test.json5", -1);
+        assertEquals(2, copied.length);
+
+        // only the preprocessed resource is copied
+        assertEquals(
+                "{\n" +
+                        "//#if a\n" +
+                        "\"test\": \"123\"\n" +
+                        "//#else\n" +
+                        "//$$ \"test\": \"456\"\n" +
+                        "//#endif\n" +
+                        "}\n", new String(Files.readAllBytes(new File(projectDir, "build/resources/main/test.json5").toPath())));
+    }
+
+    @Test
+    void testInlineResources() throws IOException {
+        writeString(getTestJsonFile(),
+                "{\n" +
+                        "//#if a\n" +
+                        "//$$ \"old_name\": \"123\"\n" +
+                        "//#else\n" +
+                        "\"old_name\": \"456\"\n" +
+                        "//#endif\n" +
+                        "}\n"
+        );
+
+        GradleRunner runner = setupGradle();
+        Files.write(getBuildFile().toPath(), "preprocess.fileRemapper.put('json5', ['old_name': 'new_name'])\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        // Run the preprocess task
+        runner.withArguments("preprocessResources");
+        runner.build();
+        String expected = new String(Files.readAllBytes(new File(projectDir, "build/generated/preprocessed/main/resources/test.json5").toPath()), StandardCharsets.UTF_8);
+        assertTrue(expected.contains("\n\"new_name\": \"123\"\n"));
+
+        // Run the inline resources build
+        Files.write(getBuildFile().toPath(), "preprocess.inlineResources = true\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        runner.withArguments("processResources");
+        BuildResult result = runner.build();
+
+        // Verify the result
+        BuildTask processResources = result.task(":processResources");
+        assertTrue(processResources != null && processResources.getOutcome() == TaskOutcome.SUCCESS);
+        assertTrue(result.task(":preprocessResources") == null);
+        assertEquals(expected, new String(Files.readAllBytes(new File(projectDir, "build/resources/main/test.json5").toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testTransformDependencyJar() throws IOException {
+        File jar = new File(projectDir, "lib/shared.jar");
+        //noinspection ResultOfMethodCallIgnored
+        jar.getParentFile().mkdirs();
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar.toPath()))) {
+            zip.putNextEntry(new ZipEntry("shared.json5"));
+            zip.write(("{\n" +
+                    "//#if a\n" +
+                    "//$$ \"test\": \"123\"\n" +
+                    "//#else\n" +
+                    "\"test\": \"456\"\n" +
+                    "//#endif\n" +
+                    "}\n").getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+
+        GradleRunner runner = setupGradle();
+        Files.write(getBuildFile().toPath(), ("dependencies {\n" +
+                "implementation files('lib/shared.jar')\n" +
+                "}\n" +
+                "configurations.compileClasspath.attributes.attribute(dev.tocraft.gradle.preprocess.tasks.PreProcessTransform.PREPROCESSED, true)\n" +
+                "tasks.register('copyClasspath', Copy) {\n" +
+                "from(configurations.compileClasspath)\n" +
+                "into(layout.buildDirectory.dir('classpath'))\n" +
+                "}\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        // Run the build
+        runner.withArguments("copyClasspath");
+        BuildResult result = runner.build();
+
+        // Verify the result
+        for (BuildTask task : result.getTasks()) {
+            assertEquals(TaskOutcome.SUCCESS, task.getOutcome());
+        }
+
+        assertEquals(
+                "{\n" +
+                        "//#if a\n" +
+                        "\"test\": \"123\"\n" +
+                        "//#else\n" +
+                        "//$$ \"test\": \"456\"\n" +
+                        "//#endif\n" +
+                        "}\n", readEntry(new File(projectDir, "build/classpath/shared.jar"), "shared.json5"));
+        // the original jar isn't changed
+        assertTrue(readEntry(jar, "shared.json5").contains("//$$ \"test\": \"123\""));
+    }
+
+    @Test
+    void testMergedTasks() throws IOException {
+        writeString(getTestJavaFile(),
+                "package test;\n" +
+                        "class Test {\n" +
+                        "//#if a\n" +
+                        "//$$ int a = 1;\n" +
+                        "//#endif\n" +
+                        "}\n"
+        );
+        writeString(getTestJsonFile(),
+                "{\n" +
+                        "//#if a\n" +
+                        "//$$ \"test\": \"123\"\n" +
+                        "//#endif\n" +
+                        "}\n"
+        );
+
+        GradleRunner runner = setupGradle();
+        Files.write(getBuildFile().toPath(), "preprocess.mergeTasks = true\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        // Run the build
+        runner.withArguments("compileJava", "processResources");
+        BuildResult result = runner.build();
+
+        // Verify the result
+        BuildTask merged = result.task(":preprocessSources");
+        assertTrue(merged != null && merged.getOutcome() == TaskOutcome.SUCCESS);
+        // the separate tasks aren't needed anymore
+        assertTrue(result.task(":preprocessJava") == null);
+        assertTrue(result.task(":preprocessResources") == null);
+
+        // the compile tasks still read their own folders
+        assertTrue(new String(Files.readAllBytes(new File(projectDir, "build/generated/preprocessed/main/java/test/Test.java").toPath())).contains("\nint a = 1;\n"));
+        assertTrue(new File(projectDir, "build/classes/java/main/test/Test.class").isFile());
+        assertTrue(new String(Files.readAllBytes(new File(projectDir, "build/resources/main/test.json5").toPath())).contains("\n\"test\": \"123\"\n"));
+    }
+
+    @Test
+    void testInMemoryJavaCompile() throws IOException {
+        writeString(getTestJavaFile(),
+                "package test;\n" +
+                        "class Test {\n" +
+                        "//#if a\n" +
+                        "//$$ int a = 1;\n" +
+                        "//#else\n" +
+                        "int b = 2;\n" +
+                        "//#endif\n" +
+                        "}\n"
+        );
+        // the first source folder wins
+        writeString(new File(projectDir, "src/extra/java/test/Test.java"), "package test;\nclass Test {\nint c = 3;\n}\n");
+
+        GradleRunner runner = setupGradle();
+        Files.write(getBuildFile().toPath(), ("sourceSets.main.java.srcDir('src/extra/java')\n" +
+                "tasks.withType(JavaCompile).configureEach {\n" +
+                "options.release = 8\n" +
+                "options.encoding = 'UTF-8'\n" +
+                "}\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        // Run the normal build
+        runner.withArguments("classes");
+        runner.build();
+        File normalClass = new File(projectDir, "build/classes/java/main/test/Test.class");
+        byte[] expected = Files.readAllBytes(normalClass.toPath());
+
+        // Run the in memory build
+        Files.write(getBuildFile().toPath(), "preprocess.inMemoryJavaCompile = true\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        runner.withArguments("classes");
+        BuildResult result = runner.build();
+
+        // Verify the result
+        BuildTask inMemory = result.task(":compileJavaInMemory");
+        assertTrue(inMemory != null && inMemory.getOutcome() == TaskOutcome.SUCCESS);
+        File inMemoryClass = new File(projectDir, "build/classes/javaInMemory/main/test/Test.class");
+        assertTrue(Arrays.equals(expected, Files.readAllBytes(inMemoryClass.toPath())));
+        // the classes of compileJava are removed, so they aren't packaged twice
+        assertTrue(!normalClass.exists());
+    }
+
+    private static @NotNull String readEntry(@NotNull File jar, @NotNull String name) throws IOException {
+        try (ZipFile zip = new ZipFile(jar); InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                bytes.write(buffer, 0, read);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
     private void writeString(@NotNull File file, String string) throws IOException {
         //noinspection ResultOfMethodCallIgnored
         file.getParentFile().mkdirs();
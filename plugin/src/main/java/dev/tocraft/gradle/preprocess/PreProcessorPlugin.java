@@ -5,12 +5,23 @@ package dev.tocraft.gradle.preprocess;
 
 import dev.tocraft.gradle.preprocess.data.PreprocessExtension;
 import dev.tocraft.gradle.preprocess.tasks.ApplyPreProcessTask;
+import dev.tocraft.gradle.preprocess.tasks.InMemoryJavaCompileTask;
+import dev.tocraft.gradle.preprocess.tasks.InlinePreProcessAction;
+import dev.tocraft.gradle.preprocess.tasks.MergedPreProcessTask;
+import dev.tocraft.gradle.preprocess.tasks.PreProcessImpactTask;
+import dev.tocraft.gradle.preprocess.tasks.PreProcessService;
+import dev.tocraft.gradle.preprocess.tasks.PreProcessPart;
 import dev.tocraft.gradle.preprocess.tasks.PreProcessTask;
+import dev.tocraft.gradle.preprocess.tasks.PreProcessTransform;
+import dev.tocraft.gradle.preprocess.tasks.ValidatePreProcessMatrixTask;
+import dev.tocraft.gradle.preprocess.tasks.ValidatePreProcessTask;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
-import org.gradle.api.file.DuplicatesStrategy;
+import org.gradle.api.artifacts.type.ArtifactTypeDefinition;
 import org.gradle.api.file.RegularFile;
 import org.gradle.api.file.SourceDirectorySet;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.SourceSetContainer;
 import org.gradle.api.tasks.TaskProvider;
 import org.gradle.api.tasks.compile.JavaCompile;
@@ -19,6 +30,13 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.kotlin.gradle.tasks.KotlinCompile;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Main class for the PreProcessor-Plugin
@@ -29,6 +47,42 @@ public class PreProcessorPlugin implements Plugin<Project> {
     public void apply(@NotNull Project project) {
         PreprocessExtension ext = project.getExtensions().create("preprocess", PreprocessExtension.class);
 
+        // one work queue for all projects, so parallel tasks don't oversubscribe the cores and the disk
+        Provider<PreProcessService> service = project.getGradle().getSharedServices().registerIfAbsent("preprocess", PreProcessService.class, spec -> {
+            spec.getParameters().getCpuThreads().set(project.provider(() -> ext.cpuThreads));
+            spec.getParameters().getIoThreads().set(project.provider(() -> ext.ioThreads));
+            spec.getMaxParallelUsages().set(project.provider(() -> Math.max(1, ext.cpuThreads)));
+        });
+        project.getTasks().withType(PreProcessTask.class).configureEach(task -> {
+            task.getService().convention(service);
+            task.usesService(service);
+        });
+        project.getTasks().withType(MergedPreProcessTask.class).configureEach(task -> {
+            task.getService().convention(service);
+            task.usesService(service);
+        });
+        project.getTasks().withType(ApplyPreProcessTask.class).configureEach(task -> {
+            task.usesService(service);
+            // measured separately, since the files are written to other places than by the preprocess task
+            task.getCostHistory().convention(project.getLayout().getBuildDirectory().file("preprocess" + File.separatorChar + task.getName() + "-costs.bin").map(RegularFile::getAsFile));
+        });
+
+        // jars of configurations requesting the preprocessed attribute are preprocessed once per vars and cached by Gradle
+        project.getDependencies().getAttributesSchema().attribute(PreProcessTransform.PREPROCESSED);
+        project.getDependencies().getArtifactTypes().maybeCreate("jar").getAttributes().attribute(PreProcessTransform.PREPROCESSED, false);
+        project.getDependencies().registerTransform(PreProcessTransform.class, spec -> {
+            spec.getFrom().attribute(PreProcessTransform.PREPROCESSED, false).attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, ArtifactTypeDefinition.JAR_TYPE);
+            spec.getTo().attribute(PreProcessTransform.PREPROCESSED, true).attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, ArtifactTypeDefinition.JAR_TYPE);
+            spec.parameters(parameters -> {
+                parameters.getVars().set(project.provider(() -> resolveVars(ext.vars)));
+                parameters.getKeywords().set(project.provider(() -> ext.keywords));
+                parameters.getRemap().set(project.provider(() -> ext.remapper));
+                parameters.getFileRemap().set(project.provider(() -> ext.fileRemapper));
+                parameters.getIdentifierRemap().set(project.provider(() -> ext.identifierRemap));
+                parameters.getRemapInactive().set(project.provider(() -> ext.remapInactive));
+            });
+        });
+
         boolean hasKotlin = project.getPlugins().hasPlugin("kotlin");
 
         SourceSetContainer sourceSetContainer = project.getExtensions().findByType(SourceSetContainer.class);
@@ -36,19 +90,51 @@ public class PreProcessorPlugin implements Plugin<Project> {
             sourceSetContainer.configureEach(sourceSet -> {
                 String generated = "generated" + File.separatorChar + "preprocessed" + File.separatorChar + sourceSet.getName() + File.separatorChar;
 
+                // does the work of all preprocess tasks of this source set, if they are merged
+                TaskProvider<MergedPreProcessTask> preprocessSources = project.getTasks().register(sourceSet.getTaskName("preprocess", "Sources"), MergedPreProcessTask.class, task -> {
+                    task.onlyIf(t -> ext.mergeTasks);
+                    task.getCostHistory().convention(project.getLayout().getBuildDirectory().file("preprocess" + File.separatorChar + task.getName() + "-costs.bin").map(RegularFile::getAsFile));
+                    task.getOutputs().upToDateWhen(t -> false);
+                });
+
                 // Java Source
                 TaskProvider<PreProcessTask> preprocessJava = project.getTasks().register(sourceSet.getTaskName("preprocess", "Java"), PreProcessTask.class, task -> {
+                    configure(project, ext, task);
                     task.getSources().convention(sourceSet.getJava().getSrcDirs());
-                    task.getVars().convention(ext.vars);
-                    task.getRemap().convention(ext.remapper);
-                    task.getKeywords().convention(ext.keywords);
+                    task.getRemap().convention(project.provider(() -> merge(ext.remapper, ext.javaRemapper)));
+                    task.getIdentifierRemap().convention(project.provider(() -> ext.identifierRemap));
                     task.getTarget().set(project.getLayout().getBuildDirectory().file(generated + "java").map(RegularFile::getAsFile));
                     task.getOutputs().upToDateWhen(t -> false);
+                    task.onlyIf(t -> !ext.mergeTasks);
                 });
+                // the in memory compilation preprocesses the java sources itself
+                preprocessSources.configure(task -> {
+                    PreProcessPart part = project.getObjects().newInstance(PreProcessPart.class).from(preprocessJava);
+                    task.getParts().addAll(project.provider(() -> ext.inMemoryJavaCompile ? Collections.emptyList() : Collections.singletonList(part)));
+                });
+
+                TaskProvider<JavaCompile> compileJava = project.getTasks().named(sourceSet.getCompileJavaTaskName(), JavaCompile.class);
+                TaskProvider<InMemoryJavaCompileTask> compileJavaInMemory = project.getTasks().register(sourceSet.getTaskName("compile", "JavaInMemory"), InMemoryJavaCompileTask.class, preprocessJava);
+                compileJavaInMemory.configure(task -> {
+                    JavaCompile javaCompile = compileJava.get();
+                    task.onlyIf(t -> ext.inMemoryJavaCompile);
+                    task.getClasspath().from(javaCompile.getClasspath());
+                    task.getAnnotationProcessorPath().from(project.provider(() -> javaCompile.getOptions().getAnnotationProcessorPath()));
+                    task.getCompilerArgs().addAll(project.provider(() -> compilerArgs(javaCompile)));
+                    task.getEncoding().convention(project.provider(() -> javaCompile.getOptions().getEncoding()));
+                    task.getJavaCompiler().convention(javaCompile.getJavaCompiler());
+                    // a folder of its own, so the outputs of compileJava aren't deleted or mixed up
+                    task.getDestinationDirectory().convention(project.getLayout().getBuildDirectory().dir("classes" + File.separatorChar + "javaInMemory" + File.separatorChar + sourceSet.getName()));
+                    task.getWriteSources().convention(project.provider(() -> ext.writePreProcessedSources));
+                    // the sources are preprocessed while they are compiled, so the classes change with the configuration
+                    task.getInputs().property("preprocess", project.provider(() -> fingerprint(preprocessJava.get())));
+                });
+                sourceSet.getOutput().dir(Collections.singletonMap("builtBy", compileJavaInMemory), project.provider(() -> ext.inMemoryJavaCompile ? compileJavaInMemory.get().getDestinationDirectory().get() : Collections.emptyList()));
 
-                project.getTasks().named(sourceSet.getCompileJavaTaskName(), JavaCompile.class, task -> {
-                    task.dependsOn(preprocessJava);
-                    task.setSource(preprocessJava.flatMap(PreProcessTask::getTarget));
+                compileJava.configure(task -> {
+                    task.dependsOn(project.provider(() -> ext.inMemoryJavaCompile ? compileJavaInMemory : ext.mergeTasks ? preprocessSources : preprocessJava));
+                    // the classes were already compiled in memory. Without sources, Gradle also removes the classes of earlier builds
+                    task.setSource(project.provider(() -> ext.inMemoryJavaCompile ? Collections.emptyList() : preprocessJava.get().getTarget().get()));
                 });
 
                 project.getTasks().register(sourceSet.getTaskName("applyPreProcess", "Java"), ApplyPreProcessTask.class, preprocessJava).configure(task -> task.dependsOn(preprocessJava));
@@ -56,16 +142,18 @@ public class PreProcessorPlugin implements Plugin<Project> {
                 // Kotlin
                 if (hasKotlin) {
                     TaskProvider<PreProcessTask> preprocessKotlin = project.getTasks().register(sourceSet.getTaskName("preprocess", "Kotlin"), PreProcessTask.class, task -> {
+                        configure(project, ext, task);
                         task.getSources().convention(((SourceDirectorySet) sourceSet.getExtensions().getByName("kotlin")).getSrcDirs());
-                        task.getVars().convention(ext.vars);
-                    task.getRemap().convention(ext.remapper);
-                    task.getKeywords().convention(ext.keywords);
+                        task.getRemap().convention(project.provider(() -> merge(ext.remapper, ext.kotlinRemapper)));
+                        task.getIdentifierRemap().convention(project.provider(() -> ext.identifierRemap));
                         task.getTarget().set(project.getLayout().getBuildDirectory().file(generated + "kotlin").map(RegularFile::getAsFile));
                         task.getOutputs().upToDateWhen(t -> false);
+                        task.onlyIf(t -> !ext.mergeTasks);
                     });
+                    preprocessSources.configure(task -> task.getParts().add(project.getObjects().newInstance(PreProcessPart.class).from(preprocessKotlin)));
 
                     project.getTasks().named(sourceSet.getCompileTaskName("kotlin"), KotlinCompile.class, task -> {
-                        task.dependsOn(preprocessKotlin);
+                        task.dependsOn(project.provider(() -> ext.mergeTasks ? preprocessSources : preprocessKotlin));
                         task.setSource(preprocessKotlin.flatMap(PreProcessTask::getTarget));
                     });
 
@@ -74,25 +162,82 @@ public class PreProcessorPlugin implements Plugin<Project> {
 
                 // Resources
                 TaskProvider<PreProcessTask> preprocessResources = project.getTasks().register(sourceSet.getTaskName("preprocess", "Resources"), PreProcessTask.class, task -> {
+                    configure(project, ext, task);
                     task.getSources().convention(sourceSet.getResources().getSrcDirs());
-                    task.getVars().convention(ext.vars);
-                    task.getRemap().convention(ext.remapper);
-                    task.getKeywords().convention(ext.keywords);
+                    task.getRemap().convention(project.provider(() -> merge(ext.remapper, ext.resourcesRemapper)));
                     task.getTarget().set(project.getLayout().getBuildDirectory().file(generated + "resources").map(RegularFile::getAsFile));
                     task.getOutputs().upToDateWhen(t -> false);
+                    task.onlyIf(t -> !ext.mergeTasks);
+                });
+                // the inline mode preprocesses the resources itself
+                preprocessSources.configure(task -> {
+                    PreProcessPart part = project.getObjects().newInstance(PreProcessPart.class).from(preprocessResources);
+                    task.getParts().addAll(project.provider(() -> ext.inlineResources ? Collections.emptyList() : Collections.singletonList(part)));
                 });
 
                 project.getTasks().named(sourceSet.getProcessResourcesTaskName(), ProcessResources.class, task -> {
-                    task.dependsOn(preprocessResources);
-                    task.from(preprocessResources.flatMap(PreProcessTask::getTarget));
-                    // why do I need this?!?
-                    task.setDuplicatesStrategy(DuplicatesStrategy.INCLUDE);
+                    task.dependsOn(project.provider(() -> ext.inlineResources ? Collections.emptyList() : ext.mergeTasks ? preprocessSources : preprocessResources));
+                    task.from(project.provider(() -> ext.inlineResources ? Collections.emptyList() : preprocessResources.get().getTarget().get()));
+                    // the inline mode preprocesses the original resources while copying them
+                    task.eachFile(new InlinePreProcessAction(preprocessResources, project.provider(() -> ext.inlineResources)));
+                    task.getInputs().property("preprocess", project.provider(() -> ext.inlineResources ? fingerprint(preprocessResources.get()) : ""));
+                    // the preprocessed resources already contain every original resource, so these are skipped
+                    ListProperty<Path> originalFolders = project.getObjects().listProperty(Path.class);
+                    originalFolders.set(preprocessResources.flatMap(PreProcessTask::getSources).map(srcFolders -> {
+                        List<Path> paths = new ArrayList<>();
+                        for (File srcFolder : srcFolders) {
+                            paths.add(project.file(srcFolder).toPath());
+                        }
+                        return paths;
+                    }));
+                    // the folders are resolved once, when the first file is copied
+                    originalFolders.finalizeValueOnRead();
+                    task.exclude(element -> {
+                        if (ext.inlineResources) {
+                            return false;
+                        }
+                        Path path = element.getFile().toPath();
+                        for (Path originalFolder : originalFolders.get()) {
+                            if (path.startsWith(originalFolder)) {
+                                return true;
+                            }
+                        }
+                        return false;
+                    });
                 });
 
                 project.getTasks().register(sourceSet.getTaskName("applyPreProcess", "Resources"), ApplyPreProcessTask.class, preprocessResources).configure(task -> task.dependsOn(preprocessResources));
             });
         }
 
+        project.getTasks().register("validatePreProcess", ValidatePreProcessTask.class, task -> {
+            task.getVars().convention(project.provider(() -> resolveVars(ext.vars)));
+            task.getKeywords().convention(ext.keywords);
+            task.getSources().from(allPreProcessSources(project));
+            task.getReport().convention(project.getLayout().getBuildDirectory().file("generated" + File.separatorChar + "preprocessed" + File.separatorChar + "validatePreProcess.txt"));
+        });
+
+        project.getTasks().register("validatePreProcessMatrix", ValidatePreProcessMatrixTask.class, task -> {
+            task.getMatrix().convention(project.provider(() -> {
+                Map<String, Map<String, Object>> matrix = new LinkedHashMap<>();
+                for (Map.Entry<String, Map<String, Object>> entry : ext.matrix.entrySet()) {
+                    matrix.put(entry.getKey(), resolveVars(entry.getValue()));
+                }
+                return matrix;
+            }));
+            task.getKeywords().convention(ext.keywords);
+            task.getSources().from(allPreProcessSources(project));
+            task.getReport().convention(project.getLayout().getBuildDirectory().file("generated" + File.separatorChar + "preprocessed" + File.separatorChar + "validatePreProcessMatrix.txt"));
+        });
+
+        project.getTasks().register("preProcessImpact", PreProcessImpactTask.class, task -> {
+            task.getVars().convention(project.provider(() -> resolveVars(ext.vars)));
+            task.getKeywords().convention(ext.keywords);
+            task.getSources().from(allPreProcessSources(project));
+            task.getIndex().convention(project.getLayout().getBuildDirectory().file("preprocess" + File.separatorChar + "impact-index.bin"));
+            task.getReport().convention(project.getLayout().getBuildDirectory().file("reports" + File.separatorChar + "preprocess" + File.separatorChar + "impact.json"));
+        });
+
         project.getTasks().register("applyPreProcess").configure(task -> {
             for (ApplyPreProcessTask subApplyPreProcessTask : project.getTasks().withType(ApplyPreProcessTask.class)) {
                 task.dependsOn(subApplyPreProcessTask);
@@ -103,4 +248,89 @@ public class PreProcessorPlugin implements Plugin<Project> {
             }
         });
     }
+
+    /**
+     * Sets the conventions every preprocess task shares
+     */
+    private static void configure(@NotNull Project project, @NotNull PreprocessExtension ext, @NotNull PreProcessTask task) {
+        task.getVars().convention(project.provider(() -> resolveVars(ext.vars)));
+        task.getKeywords().convention(ext.keywords);
+        task.getFileRemap().convention(ext.fileRemapper);
+        task.getRemapInactive().convention(project.provider(() -> ext.remapInactive));
+        task.getParallelThreshold().convention(project.provider(() -> ext.parallelThreshold));
+        task.getPruneImports().convention(project.provider(() -> ext.pruneImports));
+        task.getOmitInactiveFiles().convention(project.provider(() -> ext.omitInactiveFiles));
+        // shared by all projects, so the targets in subprojects link the same files
+        task.getOutputStore().convention(project.provider(() -> ext.outputStore ? new File(project.getRootProject().getLayout().getBuildDirectory().get().getAsFile(), "preprocess" + File.separatorChar + "store") : null));
+        task.getBufferMemoryLimit().convention(project.provider(() -> ext.bufferMemoryLimit));
+        task.getDirectBuffers().convention(project.provider(() -> ext.directBuffers));
+        task.getCacheMemoryLimit().convention(project.provider(() -> ext.cacheMemoryLimit));
+        task.getCostHistory().convention(project.getLayout().getBuildDirectory().file("preprocess" + File.separatorChar + task.getName() + "-costs.bin").map(RegularFile::getAsFile));
+    }
+
+    /**
+     * @return the source folders of every preprocess task in the project
+     */
+    private static @NotNull Provider<List<File>> allPreProcessSources(@NotNull Project project) {
+        return project.provider(() -> {
+            List<File> sources = new ArrayList<>();
+            for (PreProcessTask preProcessTask : project.getTasks().withType(PreProcessTask.class)) {
+                sources.addAll(preProcessTask.getSources().get());
+            }
+            return sources;
+        });
+    }
+
+    /**
+     * @return the configuration of the preprocess task, so tasks which preprocess inline are rerun when it changes
+     */
+    private static @NotNull String fingerprint(@NotNull PreProcessTask task) {
+        return task.getVars().get() + "|" + task.getKeywords().get() + "|" + task.getRemap().get() + "|" + task.getFileRemap().get() + "|" + task.getIdentifierRemap().get() + "|" + task.getRemapInactive().get() + "|" + task.getRemoveComments().get()
+                + "|" + task.getPruneImports().get() + "|" + task.getOmitInactiveFiles().get();
+    }
+
+    /**
+     * @return the arguments {@link JavaCompile} would pass to javac, which change the compiled classes
+     */
+    private static @NotNull List<String> compilerArgs(@NotNull JavaCompile javaCompile) {
+        List<String> args = new ArrayList<>();
+        if (javaCompile.getOptions().getRelease().isPresent()) {
+            args.add("--release");
+            args.add(String.valueOf(javaCompile.getOptions().getRelease().get()));
+        } else {
+            args.addAll(Arrays.asList("-source", javaCompile.getSourceCompatibility(), "-target", javaCompile.getTargetCompatibility()));
+        }
+        if (!javaCompile.getOptions().isDebug()) {
+            args.add("-g:none");
+        } else if (javaCompile.getOptions().getDebugOptions().getDebugLevel() != null) {
+            args.add("-g:" + javaCompile.getOptions().getDebugOptions().getDebugLevel());
+        } else {
+            args.add("-g");
+        }
+        args.addAll(javaCompile.getOptions().getCompilerArgs());
+        return args;
+    }
+
+    /**
+     * @return the vars with every Gradle provider resolved, so the preprocessor only gets plain values
+     */
+    private static @NotNull Map<String, Object> resolveVars(@NotNull Map<String, Object> vars) {
+        Map<String, Object> resolved = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : vars.entrySet()) {
+            Object value = entry.getValue() instanceof Provider ? ((Provider<?>) entry.getValue()).getOrNull() : entry.getValue();
+            if (value != null) {
+                resolved.put(entry.getKey(), value);
+            }
+        }
+        return resolved;
+    }
+
+    private static @NotNull Map<String, String> merge(@NotNull Map<String, String> remapper, @NotNull Map<String, String> taskRemapper) {
+        if (taskRemapper.isEmpty()) {
+            return remapper;
+        }
+        Map<String, String> merged = new LinkedHashMap<>(remapper);
+        merged.putAll(taskRemapper);
+        return merged;
+    }
 }
@@ -0,0 +1,310 @@
+package dev.tocraft.gradle.preprocess.cli;
+
+import dev.tocraft.gradle.preprocess.data.Keywords;
+import dev.tocraft.gradle.preprocess.util.ParsedFileCache;
+import dev.tocraft.gradle.preprocess.util.PreProcessor;
+import dev.tocraft.gradle.preprocess.util.ReMapper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Standalone entry point, so the preprocessor can be used without starting a Gradle build.
+ * The configuration is read from a properties file:
+ * <pre>
+ * var.MC=1.20.1
+ * keywords.json=//#if,//#elseif,//#else,//#endif,//$$
+ * remap.net.minecraft.client.Old=net.minecraft.client.New
+ * fileRemap.json.old_key=new_key
+ * removeComments=false
+ * identifierRemap=false
+ * remapInactive=true
+ * </pre>
+ */
+public final class PreProcessorCli {
+    private static final String USAGE = String.join("\n",
+            "Usage: java -jar preprocessor-cli.jar [options] <source>...",
+            "  -c, --config <file>   properties file with the vars, keywords and remap entries",
+            "  -o, --output <dir>    folder the sources are preprocessed to, they are converted in place if missing",
+            "  -t, --threads <n>     amount of files preprocessed at the same time (default: available processors)",
+            "      --train           preprocesses a generated sample, used to create the AppCDS archive",
+            "  -h, --help            prints this message");
+
+    private final PreProcessor preProcessor;
+    private final ReMapper reMapper;
+
+    /**
+     * @param config the parsed configuration file
+     */
+    public PreProcessorCli(@NotNull Map<String, String> config) {
+        Map<String, Object> vars = new HashMap<>();
+        Map<String, Keywords> keywords = new HashMap<>();
+        Map<String, String> remap = new LinkedHashMap<>();
+        Map<String, Map<String, String>> fileRemap = new HashMap<>();
+        for (Map.Entry<String, String> entry : config.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            if (key.startsWith("var.")) {
+                vars.put(key.substring(4), value);
+            } else if (key.startsWith("keywords.")) {
+                String[] split = value.split(",", -1);
+                if (split.length != 5) {
+                    throw new IllegalArgumentException("Expected the keywords IF, ELSEIF, ELSE, ENDIF and EVAL for " + key + ", got: " + value);
+                }
+                keywords.put(key.substring(9), new Keywords(split[0].trim(), split[1].trim(), split[2].trim(), split[3].trim(), split[4].trim()));
+            } else if (key.startsWith("remap.")) {
+                remap.put(key.substring(6), value);
+            } else if (key.startsWith("fileRemap.")) {
+                int i = key.indexOf('.', 10);
+                if (i < 0) {
+                    throw new IllegalArgumentException("Expected fileRemap.<extension>.<from>, got: " + key);
+                }
+                fileRemap.computeIfAbsent(key.substring(10, i), k -> new LinkedHashMap<>()).put(key.substring(i + 1), value);
+            } else if (!key.equals("removeComments") && !key.equals("identifierRemap") && !key.equals("remapInactive") && !key.equals("parallelThreshold")) {
+                throw new IllegalArgumentException("Unknown configuration entry: " + key);
+            }
+        }
+
+        // every file is only read once, so caching the parsed files would only waste memory
+        ParsedFileCache.configure(0);
+        this.preProcessor = new PreProcessor(Boolean.parseBoolean(config.get("removeComments")), vars, keywords)
+                .setParallelThreshold(Integer.parseInt(config.getOrDefault("parallelThreshold", "0")));
+        this.reMapper = new ReMapper(remap, fileRemap, Boolean.parseBoolean(config.get("identifierRemap")), Boolean.parseBoolean(config.getOrDefault("remapInactive", "true")));
+    }
+
+    /**
+     * @param file the properties file
+     * @return the entries in the order they are declared, since the remap entries are applied in this order
+     */
+    public static @NotNull Map<String, String> readConfig(@NotNull Path file) throws IOException {
+        Map<String, String> config = new LinkedHashMap<>();
+        StringBuilder entry = new StringBuilder();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            boolean comment = entry.length() == 0 && (line.trim().startsWith("#") || line.trim().startsWith("!"));
+            entry.append(line).append('\n');
+            if (comment || !isContinued(line)) {
+                // every entry is loaded on its own, so the order is kept while the escapes are still handled like in any properties file
+                Properties properties = new Properties();
+                properties.load(new StringReader(entry.toString()));
+                for (String key : properties.stringPropertyNames()) {
+                    config.put(key, properties.getProperty(key));
+                }
+                entry.setLength(0);
+            }
+        }
+        return config;
+    }
+
+    /**
+     * @return true, if the line ends with an odd amount of backslashes, so the entry continues on the next line
+     */
+    private static boolean isContinued(@NotNull String line) {
+        int backslashes = 0;
+        for (int i = line.length() - 1; i >= 0 && line.charAt(i) == '\\'; i--) {
+            backslashes++;
+        }
+        return backslashes % 2 == 1;
+    }
+
+    /**
+     * Preprocesses every file of the sources. If a file exists in multiple sources, the first one is used.
+     *
+     * @param sources the source folders
+     * @param output  the folder the files are written to or null, if the sources shall be converted in place
+     * @param threads the amount of files preprocessed at the same time
+     * @return the errors, one message per failed file
+     */
+    public @NotNull List<String> run(@NotNull List<Path> sources, @Nullable Path output, int threads) throws IOException, InterruptedException {
+        Map<Path, Path> files = new LinkedHashMap<>();
+        for (Path source : sources) {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    Path target = output != null ? output.resolve(source.relativize(file).toString()) : file;
+                    files.putIfAbsent(target, file);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "preprocess-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>(files.size());
+            for (Map.Entry<Path, Path> entry : files.entrySet()) {
+                futures.add(executor.submit(() -> preProcessor.convertFile(reMapper, entry.getValue().toFile(), entry.getKey().toFile())));
+            }
+
+            List<String> errors = new ArrayList<>();
+            Iterator<Path> inFiles = files.values().iterator();
+            for (Future<?> future : futures) {
+                Path inFile = inFiles.next();
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    errors.add(inFile + ": " + e.getCause().getMessage());
+                }
+            }
+            return errors;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Preprocesses a generated sample once, so every class used for a real run is loaded and can be archived.
+     */
+    private static void train(int threads) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("preprocess-train");
+        try {
+            Path source = dir.resolve("src");
+            Files.createDirectories(source.resolve("data"));
+            Files.write(source.resolve("Sample.java"), Arrays.asList(
+                    "package sample;",
+                    "//#if MC > 11904",
+                    "import net.minecraft.Old;",
+                    "//#else",
+                    "//$$ import net.minecraft.New;",
+                    "//#endif",
+                    "public class Sample {}"), StandardCharsets.UTF_8);
+            Files.write(source.resolve("data/sample.json"), Arrays.asList(
+                    "{",
+                    "  //#if FABRIC",
+                    "  \"old_key\": true",
+                    "  //#endif",
+                    "}"), StandardCharsets.UTF_8);
+            Files.write(source.resolve("data/sample.bin"), new byte[]{(byte) 0xC3, (byte) 0x28, 0, 1});
+
+            Map<String, String> config = new LinkedHashMap<>();
+            config.put("var.MC", "12001");
+            config.put("var.FABRIC", "1");
+            config.put("remap.net.minecraft.Old", "net.minecraft.New");
+            config.put("fileRemap.json.old_key", "new_key");
+            List<String> errors = new PreProcessorCli(config).run(Collections.singletonList(source), dir.resolve("out"), threads);
+            if (!errors.isEmpty()) {
+                throw new IllegalStateException(String.join("\n", errors));
+            }
+        } finally {
+            try (Stream<Path> walk = Files.walk(dir)) {
+                walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        Arguments arguments;
+        try {
+            arguments = Arguments.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        try {
+            if (arguments.help) {
+                System.out.println(USAGE);
+                return;
+            }
+            if (arguments.train) {
+                train(arguments.threads);
+                return;
+            }
+            if (arguments.sources.isEmpty()) {
+                System.err.println(USAGE);
+                System.exit(2);
+            }
+
+            long start = System.nanoTime();
+            PreProcessorCli cli = new PreProcessorCli(arguments.config != null ? readConfig(arguments.config) : Collections.emptyMap());
+            List<String> errors = cli.run(arguments.sources, arguments.output, arguments.threads);
+            for (String error : errors) {
+                System.err.println(error);
+            }
+            if (!errors.isEmpty()) {
+                System.exit(1);
+            }
+            System.out.println("PreProcessed Successfully in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The parsed command line
+     */
+    static final class Arguments {
+        @Nullable Path config = null;
+        @Nullable Path output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean train = false;
+        boolean help = false;
+        final List<Path> sources = new ArrayList<>();
+
+        /**
+         * @param args the command line arguments
+         * @return the parsed arguments
+         * @throws IllegalArgumentException if an option is missing its value or the amount of threads isn't a number
+         */
+        static @NotNull Arguments parse(String @NotNull [] args) {
+            Arguments arguments = new Arguments();
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-c":
+                    case "--config":
+                        arguments.config = Paths.get(value(args, ++i));
+                        break;
+                    case "-o":
+                    case "--output":
+                        arguments.output = Paths.get(value(args, ++i));
+                        break;
+                    case "-t":
+                    case "--threads":
+                        String threads = value(args, ++i);
+                        try {
+                            arguments.threads = Integer.parseInt(threads);
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Expected a number of threads, got: " + threads);
+                        }
+                        break;
+                    case "--train":
+                        arguments.train = true;
+                        break;
+                    case "-h":
+                    case "--help":
+                        arguments.help = true;
+                        break;
+                    default:
+                        arguments.sources.add(Paths.get(args[i]));
+                }
+            }
+            return arguments;
+        }
+
+        private static @NotNull String value(String @NotNull [] args, int i) {
+            if (i >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+            }
+            return args[i];
+        }
+    }
+}
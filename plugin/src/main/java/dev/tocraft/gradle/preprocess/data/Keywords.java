@@ -1,9 +1,14 @@
 package dev.tocraft.gradle.preprocess.data;
 
+import java.io.Serializable;
+import java.util.Objects;
+
 /**
  * The defined keywords that will be taken into account by the preprocessor
  */
-public final class Keywords {
+public final class Keywords implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private final String IF;
     private final String ELSEIF;
     private final String ELSE;
@@ -38,6 +43,28 @@ public final class Keywords {
         return EVAL;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Keywords)) {
+            return false;
+        }
+        Keywords keywords = (Keywords) o;
+        return IF.equals(keywords.IF) && ELSEIF.equals(keywords.ELSEIF) && ELSE.equals(keywords.ELSE) && ENDIF.equals(keywords.ENDIF) && EVAL.equals(keywords.EVAL);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(IF, ELSEIF, ELSE, ENDIF, EVAL);
+    }
+
+    @Override
+    public String toString() {
+        return "Keywords[" + IF + ", " + ELSEIF + ", " + ELSE + ", " + ENDIF + ", " + EVAL + "]";
+    }
+
     /**
      * Default Keywords and fallback, if no custom keywords are defined for the target file
      */
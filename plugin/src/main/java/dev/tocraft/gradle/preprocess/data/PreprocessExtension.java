@@ -12,6 +12,10 @@ public class PreprocessExtension {
      * the vars that shall be used for the custom if-statements
      */
     public Map<String, Object> vars = new HashMap<>();
+    /**
+     * the vars of every supported target by its name, so validatePreProcessMatrix can check all of them at once
+     */
+    public Map<String, Map<String, Object>> matrix = new LinkedHashMap<>();
     /**
      * custom keywords, where the key is something the target file name should end with (e.g. '.json') and the Keywords are the custom keywords for this file type.
      */
@@ -20,4 +24,88 @@ public class PreprocessExtension {
      * A map where each occurrence of a key in the code will be replaced with the respective value
      */
     public Map<String, String> remapper = new LinkedHashMap<>();
+    /**
+     * additional remap tables, where the key is the file extension (e.g. 'json') the table is used for
+     */
+    public Map<String, Map<String, String>> fileRemapper = new HashMap<>();
+    /**
+     * additional remap table only used for Java sources
+     */
+    public Map<String, String> javaRemapper = new LinkedHashMap<>();
+    /**
+     * additional remap table only used for Kotlin sources
+     */
+    public Map<String, String> kotlinRemapper = new LinkedHashMap<>();
+    /**
+     * additional remap table only used for resources
+     */
+    public Map<String, String> resourcesRemapper = new LinkedHashMap<>();
+    /**
+     * if true, the keys of the {@link #remapper} are identifiers or dotted names (e.g. 'net.example.Foo') instead of regexes.
+     * Java and Kotlin files are then tokenized, so comments, strings and partial matches are left untouched.
+     */
+    public boolean identifierRemap = false;
+    /**
+     * if false, lines commented out by the preprocessor won't be remapped
+     */
+    public boolean remapInactive = true;
+    /**
+     * the amount of lines a file needs, so it's split into chunks that are preprocessed in parallel. 0 disables this
+     */
+    public int parallelThreshold = 50000;
+    /**
+     * the maximum amount of bytes that read and write buffers may hold, whether they are in use or idle. Buffers needed beyond it are allocated outside the pool.
+     * The pool is shared by every task of the Gradle daemon and each task applies the value of its project, so it should be the same in every project.
+     * Buffers up to 4 MiB are rounded up to the next power of two, larger files get a buffer of their exact size, which is never pooled
+     */
+    public long bufferMemoryLimit = 64L << 20;
+    /**
+     * if the read and write buffers shall be allocated outside the heap. Like {@link #bufferMemoryLimit}, it applies to the whole Gradle daemon
+     */
+    public boolean directBuffers = false;
+    /**
+     * if true, java sources are preprocessed while javac reads them instead of being written to the disk first
+     */
+    public boolean inMemoryJavaCompile = false;
+    /**
+     * if true, the sources preprocessed for {@link #inMemoryJavaCompile} are also written to the disk for debugging
+     */
+    public boolean writePreProcessedSources = false;
+    /**
+     * the estimated amount of bytes parsed files may use, while they are kept in memory between builds of the same daemon. 0 disables this
+     */
+    public long cacheMemoryLimit = 128L << 20;
+    /**
+     * if true, resources are preprocessed while processResources copies them instead of being written to the disk first
+     */
+    public boolean inlineResources = false;
+    /**
+     * if true, imports of Java and Kotlin files, which aren't used anymore after preprocessing, are replaced with blank lines in the preprocessed files.
+     * The applyPreProcess tasks never remove imports
+     */
+    public boolean pruneImports = false;
+    /**
+     * if true, Java and Kotlin files, whose code is completely commented out by the preprocessor, e.g. since the whole file is in an inactive if-statement,
+     * aren't written to the preprocessed sources, so the compilers don't need to read them. The applyPreProcess tasks still keep them commented out
+     */
+    public boolean omitInactiveFiles = false;
+    /**
+     * if true, the preprocessed files are stored once by their content in the build folder of the root project and hard linked into the target folders,
+     * so files which are the same for many targets or source sets are only written once
+     */
+    public boolean outputStore = false;
+    /**
+     * if true, the java, kotlin and resources of a source set are preprocessed by one task, which walks every folder once and queues all files together
+     */
+    public boolean mergeTasks = false;
+    /**
+     * the maximum amount of threads preprocessing files and the chunks of large files across all projects of the build, which is also the maximum amount of preprocess tasks running at the same time.
+     * Only the value of the first project applying the plugin is used
+     */
+    public int cpuThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * the maximum amount of files read or written at the same time across all projects of the build. 0 disables this limit.
+     * Only the value of the first project applying the plugin is used
+     */
+    public int ioThreads = 4;
 }
@@ -0,0 +1,132 @@
+package dev.tocraft.gradle.preprocess.tasks;
+
+import dev.tocraft.gradle.preprocess.data.Keywords;
+import dev.tocraft.gradle.preprocess.util.ParseException;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.tasks.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The sources, keywords and report of the tasks, which check the if-statements without preprocessing
+ *
+ * @see ValidatePreProcessTask
+ * @see ValidatePreProcessMatrixTask
+ */
+public abstract class AbstractValidatePreProcessTask extends DefaultTask {
+    private final MapProperty<String, Keywords> keywords;
+    private final ConfigurableFileCollection sources;
+    private final RegularFileProperty report;
+
+    /**
+     * @param factory some object factory to create the properties
+     */
+    protected AbstractValidatePreProcessTask(final @NotNull ObjectFactory factory) {
+        this.keywords = factory.mapProperty(String.class, Keywords.class);
+        this.sources = factory.fileCollection();
+        this.report = factory.fileProperty();
+    }
+
+    /**
+     * @return the keywords of every file type
+     */
+    @Input
+    public MapProperty<String, Keywords> getKeywords() {
+        return keywords;
+    }
+
+    /**
+     * @return the source folders
+     */
+    @InputFiles
+    @SkipWhenEmpty
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public ConfigurableFileCollection getSources() {
+        return sources;
+    }
+
+    /**
+     * @return a small file with the amount of checked files. It's only written, so Gradle can skip or cache this task
+     */
+    @OutputFile
+    public RegularFileProperty getReport() {
+        return report;
+    }
+
+    /**
+     * Checks every file of the sources in parallel and fails with all errors at once
+     *
+     * @param validator checks a single file
+     * @return the amount of checked files
+     */
+    protected int validateSources(@NotNull Validator validator) {
+        List<File> files = new ArrayList<>();
+        for (File srcFolder : sources.getFiles()) {
+            if (!srcFolder.exists()) {
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(srcFolder.toPath())) {
+                walk.filter(Files::isRegularFile).forEach(path -> files.add(path.toFile()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        List<String> errors = files.parallelStream().flatMap(file -> {
+            try {
+                List<ParseException> fileErrors = validator.validateFile(file);
+                return fileErrors.stream().map(error -> file + ": " + error.getMessage());
+            } catch (IOException e) {
+                return Stream.of(file + ": " + e);
+            }
+        }).collect(Collectors.toList());
+
+        if (!errors.isEmpty()) {
+            for (String error : errors) {
+                getLogger().error(error);
+            }
+            throw new GradleException("Found " + errors.size() + " preprocessor errors, see the output above for details.");
+        }
+        return files.size();
+    }
+
+    /**
+     * @param content the content of the report
+     */
+    protected void writeReport(@NotNull String content) {
+        try {
+            Path reportFile = report.get().getAsFile().toPath();
+            Files.createDirectories(reportFile.getParent());
+            Files.write(reportFile, content.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks the if-statements of a single file
+     */
+    @FunctionalInterface
+    protected interface Validator {
+        /**
+         * @param file the file that shall be checked
+         * @return every error in the file
+         */
+        @NotNull List<ParseException> validateFile(@NotNull File file) throws IOException;
+    }
+}
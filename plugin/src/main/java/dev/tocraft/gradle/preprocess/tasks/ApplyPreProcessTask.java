@@ -1,6 +1,9 @@
 package dev.tocraft.gradle.preprocess.tasks;
 
 import dev.tocraft.gradle.preprocess.data.Keywords;
+import dev.tocraft.gradle.preprocess.util.BufferPool;
+import dev.tocraft.gradle.preprocess.util.CostHistory;
+import dev.tocraft.gradle.preprocess.util.ParsedFileCache;
 import dev.tocraft.gradle.preprocess.util.PreProcessor;
 import dev.tocraft.gradle.preprocess.util.ReMapper;
 import org.gradle.api.DefaultTask;
@@ -15,8 +18,11 @@ import org.jetbrains.annotations.NotNull;
 
 import javax.inject.Inject;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -24,11 +30,20 @@ import java.util.Set;
  */
 public class ApplyPreProcessTask extends DefaultTask {
     private final Property<Boolean> removeComments;
+    private final Property<Integer> parallelThreshold;
+    private final Property<Long> bufferMemoryLimit;
+    private final Property<Boolean> directBuffers;
+    private final Property<Long> cacheMemoryLimit;
     private final MapProperty<String, Object> vars;
     private final MapProperty<String, String> remap;
+    private final MapProperty<String, Map<String, String>> fileRemap;
+    private final Property<Boolean> identifierRemap;
+    private final Property<Boolean> remapInactive;
     private final MapProperty<String, Keywords> keywords;
     private final ListProperty<File> targets;
     private final ConfigurableFileCollection comingFiles;
+    private final Property<PreProcessService> service;
+    private final Property<File> costHistory;
 
     /**
      * @param factory        some object factory to crate the properties
@@ -37,14 +52,23 @@ public class ApplyPreProcessTask extends DefaultTask {
     @Inject
     public ApplyPreProcessTask(final @NotNull ObjectFactory factory, final @NotNull TaskProvider<PreProcessTask> preProcessTask) {
         this.removeComments = factory.property(Boolean.class).convention(false);
+        this.parallelThreshold = factory.property(Integer.class).convention(preProcessTask.flatMap(PreProcessTask::getParallelThreshold));
+        this.bufferMemoryLimit = factory.property(Long.class).convention(preProcessTask.flatMap(PreProcessTask::getBufferMemoryLimit));
+        this.directBuffers = factory.property(Boolean.class).convention(preProcessTask.flatMap(PreProcessTask::getDirectBuffers));
+        this.cacheMemoryLimit = factory.property(Long.class).convention(preProcessTask.flatMap(PreProcessTask::getCacheMemoryLimit));
 
         this.targets = factory.listProperty(File.class).convention(preProcessTask.flatMap(PreProcessTask::getSources));
 
         this.vars = factory.mapProperty(String.class, Object.class).convention(preProcessTask.flatMap(PreProcessTask::getVars));
         this.remap = factory.mapProperty(String.class, String.class).convention(preProcessTask.flatMap(PreProcessTask::getRemap));
+        this.fileRemap = PreProcessTask.createFileRemapProperty(factory).convention(preProcessTask.flatMap(PreProcessTask::getFileRemap));
+        this.identifierRemap = factory.property(Boolean.class).convention(preProcessTask.flatMap(PreProcessTask::getIdentifierRemap));
+        this.remapInactive = factory.property(Boolean.class).convention(preProcessTask.flatMap(PreProcessTask::getRemapInactive));
         this.keywords = factory.mapProperty(String.class, Keywords.class).convention(preProcessTask.flatMap(PreProcessTask::getKeywords));
 
         this.comingFiles = factory.fileCollection();
+        this.costHistory = factory.property(File.class);
+        this.service = factory.property(PreProcessService.class).convention(preProcessTask.flatMap(PreProcessTask::getService));
     }
 
     /**
@@ -71,6 +95,23 @@ public class ApplyPreProcessTask extends DefaultTask {
         return this.comingFiles;
     }
 
+    /**
+     * @return the shared work queue. If it's not set, the files are preprocessed one after another
+     */
+    @Internal
+    public Property<PreProcessService> getService() {
+        return service;
+    }
+
+    /**
+     * @return the file the time every file took is stored in, so the slowest files can be started first next time
+     */
+    @LocalState
+    @Optional
+    public Property<File> getCostHistory() {
+        return costHistory;
+    }
+
     @Internal
     @Override
     public String getDescription() {
@@ -84,10 +125,13 @@ public class ApplyPreProcessTask extends DefaultTask {
     public void applyPreProcess() {
         Set<File> foundFiles = new HashSet<>();
 
-        PreProcessor preProcessor = new PreProcessor(removeComments.get(), vars.get(), keywords.get());
-        ReMapper reMapper = new ReMapper(remap.get());
+        BufferPool.configure(bufferMemoryLimit.get(), directBuffers.get());
+        ParsedFileCache.configure(cacheMemoryLimit.get());
+        PreProcessor preProcessor = new PreProcessor(removeComments.get(), vars.get(), keywords.get()).setParallelThreshold(parallelThreshold.get());
+        ReMapper reMapper = new ReMapper(remap.get(), fileRemap.get(), identifierRemap.get(), remapInactive.get());
 
         // place file in their original source folder
+        Map<File, File> files = new LinkedHashMap<>();
         for (File srcFolder : targets.get()) {
             final File srcFolderFile = srcFolder.isAbsolute() ? srcFolder : new File(getProject().getProjectDir(), srcFolder.getPath());
             Path outBasePath = srcFolderFile.toPath();
@@ -95,12 +139,29 @@ public class ApplyPreProcessTask extends DefaultTask {
             // might be buggy when interfered by externals
             for (File file : getProject().fileTree(outBasePath)) {
                 // old school preprocessing
-                preProcessor.convertFile(reMapper, file, file);
+                files.put(file, file);
 
                 foundFiles.add(file);
             }
         }
 
+        if (service.isPresent()) {
+            CostHistory history = costHistory.isPresent() ? CostHistory.load(costHistory.get().toPath()) : CostHistory.empty();
+            service.get().convertFiles(preProcessor, reMapper, files, history);
+            if (costHistory.isPresent()) {
+                history.retain(files.keySet());
+                try {
+                    history.save(costHistory.get().toPath());
+                } catch (IOException e) {
+                    getLogger().warn("Failed to save the cost history", e);
+                }
+            }
+        } else {
+            for (File file : files.keySet()) {
+                preProcessor.convertFile(reMapper, file, file);
+            }
+        }
+
         this.comingFiles.setFrom(foundFiles);
     }
 }
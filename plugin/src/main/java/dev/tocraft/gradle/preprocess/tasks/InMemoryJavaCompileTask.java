@@ -0,0 +1,228 @@
+package dev.tocraft.gradle.preprocess.tasks;
+
+import dev.tocraft.gradle.preprocess.data.PreprocessExtension;
+import dev.tocraft.gradle.preprocess.util.PreProcessFileManager;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.*;
+import org.gradle.jvm.toolchain.JavaInstallationMetadata;
+import org.jetbrains.annotations.NotNull;
+
+import javax.inject.Inject;
+import javax.tools.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiles java sources, which are preprocessed while the compiler reads them, so they don't need to be written to the disk first.
+ * The compiler runs inside the Gradle daemon, so the toolchain of the compile task must be the JDK Gradle runs on.
+ */
+public class InMemoryJavaCompileTask extends DefaultTask {
+    private final TaskProvider<PreProcessTask> preProcessTask;
+    private final ListProperty<File> sources;
+    private final ConfigurableFileCollection classpath;
+    private final ConfigurableFileCollection annotationProcessorPath;
+    private final ListProperty<String> compilerArgs;
+    private final Property<String> encoding;
+    private final Property<org.gradle.jvm.toolchain.JavaCompiler> javaCompiler;
+    private final DirectoryProperty destinationDirectory;
+    private final Property<Boolean> writeSources;
+
+    /**
+     * @param factory        some object factory to create the properties
+     * @param preProcessTask the preprocess task with the configuration to be used
+     */
+    @Inject
+    public InMemoryJavaCompileTask(final @NotNull ObjectFactory factory, final @NotNull TaskProvider<PreProcessTask> preProcessTask) {
+        this.preProcessTask = preProcessTask;
+        this.sources = factory.listProperty(File.class).convention(preProcessTask.flatMap(PreProcessTask::getSources));
+        this.classpath = factory.fileCollection();
+        this.annotationProcessorPath = factory.fileCollection();
+        this.compilerArgs = factory.listProperty(String.class);
+        this.encoding = factory.property(String.class);
+        this.javaCompiler = factory.property(org.gradle.jvm.toolchain.JavaCompiler.class);
+        this.destinationDirectory = factory.directoryProperty();
+        this.writeSources = factory.property(Boolean.class).convention(false);
+    }
+
+    /**
+     * @return the directories of the original java sources
+     */
+    @InputFiles
+    public ListProperty<File> getSources() {
+        return sources;
+    }
+
+    /**
+     * @return the compile classpath
+     */
+    @Classpath
+    public ConfigurableFileCollection getClasspath() {
+        return classpath;
+    }
+
+    /**
+     * @return the annotation processors, no processors will run if it's empty
+     */
+    @Classpath
+    public ConfigurableFileCollection getAnnotationProcessorPath() {
+        return annotationProcessorPath;
+    }
+
+    /**
+     * @return additional arguments for the compiler
+     */
+    @Input
+    public ListProperty<String> getCompilerArgs() {
+        return compilerArgs;
+    }
+
+    /**
+     * @return the encoding of the sources, the default charset is used if it's not set
+     */
+    @Input
+    @Optional
+    public Property<String> getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return the toolchain the sources should be compiled with. It must be the JDK Gradle runs on
+     */
+    @Nested
+    @Optional
+    public Property<org.gradle.jvm.toolchain.JavaCompiler> getJavaCompiler() {
+        return javaCompiler;
+    }
+
+    /**
+     * @return the folder where the classes will be written to
+     */
+    @OutputDirectory
+    public DirectoryProperty getDestinationDirectory() {
+        return destinationDirectory;
+    }
+
+    /**
+     * @return if the preprocessed sources shall also be written to the target of the preprocess task for debugging
+     * @see PreprocessExtension#writePreProcessedSources
+     */
+    @Internal
+    public Property<Boolean> getWriteSources() {
+        return writeSources;
+    }
+
+    @Internal
+    @Override
+    public String getDescription() {
+        return "Compiles preprocessed java sources in memory.";
+    }
+
+    /**
+     * The actual compile action
+     */
+    @TaskAction
+    public void compile() {
+        if (javaCompiler.isPresent()) {
+            JavaInstallationMetadata toolchain = javaCompiler.get().getMetadata();
+            if (!isCurrentJvm(toolchain.getInstallationPath().getAsFile().toPath())) {
+                throw new GradleException("The java sources can only be compiled in memory with the JDK Gradle runs on (" + System.getProperty("java.home")
+                        + "), but the toolchain is " + toolchain.getInstallationPath().getAsFile() + ". Run Gradle with the toolchain JDK or disable inMemoryJavaCompile.");
+            }
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new GradleException("No java compiler found! Is Gradle running on a JDK?");
+        }
+        Charset charset = encoding.isPresent() ? Charset.forName(encoding.get()) : Charset.defaultCharset();
+
+        PreProcessTask task = preProcessTask.get();
+        File debugDir = writeSources.get() ? task.getTarget().get() : null;
+        if (debugDir != null) {
+            getProject().delete(debugDir);
+        }
+        File destination = destinationDirectory.get().getAsFile();
+        getProject().delete(destination);
+        //noinspection ResultOfMethodCallIgnored
+        destination.mkdirs();
+
+        List<String> options = new ArrayList<>();
+        options.add("-d");
+        options.add(destination.getAbsolutePath());
+        options.add("-encoding");
+        options.add(charset.name());
+        options.add("-classpath");
+        options.add(classpath.getAsPath());
+        // only the listed sources are compiled, like Gradle does
+        options.add("-sourcepath");
+        options.add("");
+        if (annotationProcessorPath.isEmpty()) {
+            options.add("-proc:none");
+        } else {
+            options.add("-processorpath");
+            options.add(annotationProcessorPath.getAsPath());
+        }
+        options.addAll(compilerArgs.get());
+
+        try (PreProcessFileManager fileManager = new PreProcessFileManager(compiler.getStandardFileManager(null, null, charset), task.createPreProcessor(), task.createReMapper(), charset, debugDir)) {
+            List<JavaFileObject> compilationUnits = new ArrayList<>();
+            // the first source folder wins, like in the preprocess task
+            Set<Path> seen = new HashSet<>();
+            for (File srcFolder : sources.get()) {
+                final File srcFolderFile = srcFolder.isAbsolute() ? srcFolder : new File(getProject().getProjectDir(), srcFolder.getPath());
+                FileCollection javaFiles = getProject().fileTree(srcFolderFile).matching(pattern -> pattern.include("**/*.java"));
+                List<File> files = new ArrayList<>();
+                for (File file : javaFiles) {
+                    if (seen.add(srcFolderFile.toPath().relativize(file.toPath()))) {
+                        files.add(file);
+                    }
+                }
+                compilationUnits.addAll(fileManager.getPreProcessedSources(srcFolderFile, files));
+            }
+            if (compilationUnits.isEmpty()) {
+                setDidWork(false);
+                return;
+            }
+
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            boolean success = compiler.getTask(null, fileManager, diagnostics, options, null, compilationUnits).call();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                String message = (diagnostic.getSource() != null ? diagnostic.getSource().getName() + ":" + diagnostic.getLineNumber() + ": " : "") + diagnostic.getMessage(null);
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                    getLogger().error(message);
+                } else {
+                    getLogger().warn(message);
+                }
+            }
+            if (!success) {
+                throw new GradleException("Compilation failed; see the compiler error output for details.");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean isCurrentJvm(@NotNull Path installation) {
+        Path home = Paths.get(System.getProperty("java.home"));
+        try {
+            // on Java 8, java.home is the jre folder inside the JDK
+            return Files.isSameFile(installation, home) || (home.getParent() != null && Files.isSameFile(installation, home.getParent()));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package dev.tocraft.gradle.preprocess.tasks;
+
+import dev.tocraft.gradle.preprocess.data.PreprocessExtension;
+import dev.tocraft.gradle.preprocess.util.PreProcessReader;
+import dev.tocraft.gradle.preprocess.util.PreProcessor;
+import dev.tocraft.gradle.preprocess.util.ReMapper;
+import org.gradle.api.Action;
+import org.gradle.api.file.FileCopyDetails;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.TaskProvider;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Preprocesses text resources while they are copied, so no intermediate tree has to be written.
+ * Files, which preprocessResources would copy as they are, are copied untouched. These are files without directives,
+ * remap keys, CR line endings or a missing final line break, and files which aren't UTF-8 text.
+ *
+ * @see PreprocessExtension#inlineResources
+ */
+public class InlinePreProcessAction implements Action<FileCopyDetails> {
+    private final TaskProvider<PreProcessTask> preProcessTask;
+    private final Provider<Boolean> enabled;
+    private PreProcessor preProcessor = null;
+    private ReMapper reMapper = null;
+
+    /**
+     * @param preProcessTask the preprocess task with the configuration to be used
+     * @param enabled        if the resources shall be preprocessed while copying
+     */
+    public InlinePreProcessAction(@NotNull TaskProvider<PreProcessTask> preProcessTask, @NotNull Provider<Boolean> enabled) {
+        this.preProcessTask = preProcessTask;
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void execute(@NotNull FileCopyDetails details) {
+        if (!enabled.get()) {
+            return;
+        }
+        synchronized (this) {
+            if (preProcessor == null) {
+                preProcessor = preProcessTask.get().createPreProcessor();
+                reMapper = preProcessTask.get().createReMapper();
+            }
+        }
+
+        // decoded as UTF-8 and normalized like preprocessResources does, so both give the same result
+        List<String> lines;
+        try {
+            lines = preProcessor.convertChangedFile(reMapper, details.getFile());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (lines == null) {
+            return;
+        }
+
+        details.filter(Collections.singletonMap("lines", lines), PreProcessReader.class);
+    }
+}
@@ -0,0 +1,156 @@
+package dev.tocraft.gradle.preprocess.tasks;
+
+import dev.tocraft.gradle.preprocess.data.PreprocessExtension;
+import dev.tocraft.gradle.preprocess.util.CostHistory;
+import dev.tocraft.gradle.preprocess.util.PreProcessor;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.*;
+import org.jetbrains.annotations.NotNull;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Runs the preprocess tasks of a source set as one task. Every source folder is only walked once,
+ * tasks with the same vars share one preprocessor and all files are queued together.
+ * Every task still writes to its own target folder.
+ *
+ * @see PreprocessExtension#mergeTasks
+ */
+public class MergedPreProcessTask extends DefaultTask {
+    private final ListProperty<PreProcessPart> parts;
+    private final ConfigurableFileCollection outcomingFiles;
+    private final Property<PreProcessService> service;
+    private final Property<File> costHistory;
+
+    /**
+     * @param factory some object factory to create the properties
+     */
+    @Inject
+    public MergedPreProcessTask(final @NotNull ObjectFactory factory) {
+        this.parts = factory.listProperty(PreProcessPart.class);
+        this.outcomingFiles = factory.fileCollection();
+        this.service = factory.property(PreProcessService.class);
+        this.costHistory = factory.property(File.class);
+    }
+
+    /**
+     * @return the configurations of the preprocess tasks, whose work is done by this task
+     */
+    @Nested
+    public ListProperty<PreProcessPart> getParts() {
+        return parts;
+    }
+
+    /**
+     * @return the preprocessed files
+     */
+    @OutputFiles
+    public FileCollection getOutcomingFiles() {
+        return outcomingFiles;
+    }
+
+    /**
+     * @return the shared work queue. If it's not set, the files are preprocessed one after another
+     */
+    @Internal
+    public Property<PreProcessService> getService() {
+        return service;
+    }
+
+    /**
+     * @return the file the time every file took is stored in, so the slowest files can be started first next time
+     */
+    @LocalState
+    @Optional
+    public Property<File> getCostHistory() {
+        return costHistory;
+    }
+
+    @Internal
+    @Override
+    public String getDescription() {
+        return "PreProcess all files of the source set.";
+    }
+
+    /**
+     * The actual preprocess action
+     */
+    @TaskAction
+    public void preprocess() {
+        Map<Path, List<Path>> walked = new HashMap<>();
+        List<PreProcessService.Batch> batches = new ArrayList<>();
+        List<PreProcessPart> configured = new ArrayList<>();
+        List<PreProcessor> created = new ArrayList<>();
+        List<File> inFiles = new ArrayList<>();
+        List<File> outFiles = new ArrayList<>();
+
+        for (PreProcessPart part : parts.get()) {
+            Map<File, File> files = PreProcessTask.collectFiles(getProject(), part.getName().get(), part.getSources().get(), part.getTarget().get(), walked);
+            inFiles.addAll(files.keySet());
+            outFiles.addAll(files.values());
+
+            // the compiled conditions are only shared if they are evaluated the same way
+            PreProcessor preProcessor = null;
+            for (int i = 0; i < configured.size(); i++) {
+                if (sameConfiguration(configured.get(i), part)) {
+                    preProcessor = created.get(i);
+                    break;
+                }
+            }
+            if (preProcessor == null) {
+                preProcessor = part.createPreProcessor();
+                configured.add(part);
+                created.add(preProcessor);
+            }
+
+            batches.add(new PreProcessService.Batch(preProcessor, part.createReMapper(), files));
+            if (service.isPresent() && part.getOutputStore().isPresent()) {
+                service.get().pruneOnClose(part.getOutputStore().get().toPath());
+            }
+        }
+
+        if (service.isPresent()) {
+            CostHistory history = costHistory.isPresent() ? CostHistory.load(costHistory.get().toPath()) : CostHistory.empty();
+            service.get().convertFiles(batches, history);
+            if (costHistory.isPresent()) {
+                history.retain(inFiles);
+                try {
+                    history.save(costHistory.get().toPath());
+                } catch (IOException e) {
+                    getLogger().warn("Failed to save the cost history", e);
+                }
+            }
+        } else {
+            for (PreProcessService.Batch batch : batches) {
+                batch.convert();
+            }
+        }
+
+        this.outcomingFiles.setFrom(outFiles);
+
+        getProject().getLogger().info("PreProcessed Successfully");
+    }
+
+    private static boolean sameConfiguration(@NotNull PreProcessPart a, @NotNull PreProcessPart b) {
+        return a.getVars().get().equals(b.getVars().get())
+                && a.getKeywords().get().equals(b.getKeywords().get())
+                && a.getRemoveComments().get().equals(b.getRemoveComments().get())
+                && a.getParallelThreshold().get().equals(b.getParallelThreshold().get())
+                && a.getPruneImports().get().equals(b.getPruneImports().get())
+                && a.getOmitInactiveFiles().get().equals(b.getOmitInactiveFiles().get())
+                && Objects.equals(a.getOutputStore().getOrNull(), b.getOutputStore().getOrNull());
+    }
+}
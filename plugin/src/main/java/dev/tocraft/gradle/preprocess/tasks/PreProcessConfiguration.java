@@ -0,0 +1,74 @@
+package dev.tocraft.gradle.preprocess.tasks;
+
+import dev.tocraft.gradle.preprocess.data.Keywords;
+import dev.tocraft.gradle.preprocess.util.BufferPool;
+import dev.tocraft.gradle.preprocess.util.OutputStore;
+import dev.tocraft.gradle.preprocess.util.ParsedFileCache;
+import dev.tocraft.gradle.preprocess.util.PreProcessor;
+import dev.tocraft.gradle.preprocess.util.ReMapper;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Everything needed to preprocess the sources into the target folder
+ *
+ * @see PreProcessTask
+ * @see PreProcessPart
+ */
+public interface PreProcessConfiguration {
+    Property<Boolean> getRemoveComments();
+
+    Property<Integer> getParallelThreshold();
+
+    Property<Boolean> getPruneImports();
+
+    Property<Boolean> getOmitInactiveFiles();
+
+    Property<File> getOutputStore();
+
+    Property<Long> getBufferMemoryLimit();
+
+    Property<Boolean> getDirectBuffers();
+
+    Property<Long> getCacheMemoryLimit();
+
+    MapProperty<String, String> getRemap();
+
+    MapProperty<String, Map<String, String>> getFileRemap();
+
+    Property<Boolean> getIdentifierRemap();
+
+    Property<Boolean> getRemapInactive();
+
+    Property<File> getTarget();
+
+    ListProperty<File> getSources();
+
+    MapProperty<String, Object> getVars();
+
+    MapProperty<String, Keywords> getKeywords();
+
+    /**
+     * @return a new preprocessor with this configuration
+     */
+    default PreProcessor createPreProcessor() {
+        BufferPool.configure(getBufferMemoryLimit().get(), getDirectBuffers().get());
+        ParsedFileCache.configure(getCacheMemoryLimit().get());
+        return new PreProcessor(getRemoveComments().get(), getVars().get(), getKeywords().get())
+                .setParallelThreshold(getParallelThreshold().get())
+                .setPruneImports(getPruneImports().get())
+                .setOmitInactiveFiles(getOmitInactiveFiles().get())
+                .setOutputStore(getOutputStore().isPresent() ? new OutputStore(getOutputStore().get().toPath()) : null);
+    }
+
+    /**
+     * @return a new ReMapper with this configuration
+     */
+    default ReMapper createReMapper() {
+        return new ReMapper(getRemap().get(), getFileRemap().get(), getIdentifierRemap().get(), getRemapInactive().get());
+    }
+}
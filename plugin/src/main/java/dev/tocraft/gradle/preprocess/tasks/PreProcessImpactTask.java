@@ -0,0 +1,259 @@
+package dev.tocraft.gradle.preprocess.tasks;
+
+import dev.tocraft.gradle.preprocess.data.Keywords;
+import dev.tocraft.gradle.preprocess.util.ImpactIndex;
+import dev.tocraft.gradle.preprocess.util.ParseException;
+import dev.tocraft.gradle.preprocess.util.PreProcessor;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.tasks.*;
+import org.gradle.api.tasks.options.Option;
+import org.jetbrains.annotations.NotNull;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Reports which files and how many lines would change with other vars, without preprocessing or writing any source
+ */
+public class PreProcessImpactTask extends DefaultTask {
+    private final MapProperty<String, Object> vars;
+    private final MapProperty<String, Object> proposedVars;
+    private final MapProperty<String, Keywords> keywords;
+    private final ConfigurableFileCollection sources;
+    private final RegularFileProperty index;
+    private final RegularFileProperty report;
+
+    /**
+     * @param factory some object factory to create the properties
+     */
+    @Inject
+    public PreProcessImpactTask(final @NotNull ObjectFactory factory) {
+        this.vars = factory.mapProperty(String.class, Object.class);
+        this.proposedVars = factory.mapProperty(String.class, Object.class);
+        this.keywords = factory.mapProperty(String.class, Keywords.class);
+        this.sources = factory.fileCollection();
+        this.index = factory.fileProperty();
+        this.report = factory.fileProperty();
+        // the index notices changed files itself, so the task is cheap to run every time
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    /**
+     * @return the vars the sources are currently preprocessed with
+     */
+    @Input
+    public MapProperty<String, Object> getVars() {
+        return vars;
+    }
+
+    /**
+     * @return the vars that shall be compared to the current ones. Vars which aren't set here keep their current value
+     */
+    @Input
+    public MapProperty<String, Object> getProposedVars() {
+        return proposedVars;
+    }
+
+    /**
+     * @param vars the proposed vars as <code>key=value</code>
+     */
+    @Option(option = "var", description = "A proposed var as key=value, can be used multiple times.")
+    public void setProposedVars(@NotNull List<String> vars) {
+        for (String var : vars) {
+            int i = var.indexOf('=');
+            if (i <= 0) {
+                throw new IllegalArgumentException("Expected key=value, but got: " + var);
+            }
+            proposedVars.put(var.substring(0, i).trim(), var.substring(i + 1).trim());
+        }
+    }
+
+    /**
+     * @return the keywords of every file type
+     */
+    @Input
+    public MapProperty<String, Keywords> getKeywords() {
+        return keywords;
+    }
+
+    /**
+     * @return the source folders
+     */
+    @Internal
+    public ConfigurableFileCollection getSources() {
+        return sources;
+    }
+
+    /**
+     * @return the file the if-statements of all sources are remembered in between two runs
+     */
+    @LocalState
+    public RegularFileProperty getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the JSON report
+     */
+    @OutputFile
+    public RegularFileProperty getReport() {
+        return report;
+    }
+
+    @Internal
+    @Override
+    public String getDescription() {
+        return "Reports which files would change with the proposed vars, without preprocessing them.";
+    }
+
+    /**
+     * The actual impact action
+     */
+    @TaskAction
+    public void analyze() {
+        Map<String, Object> currentVars = vars.get();
+        Map<String, Object> newVars = new LinkedHashMap<>(currentVars);
+        newVars.putAll(proposedVars.get());
+        PreProcessor current = new PreProcessor(currentVars, keywords.get());
+        PreProcessor proposed = new PreProcessor(newVars, keywords.get());
+
+        Map<Path, Path> files = new LinkedHashMap<>();
+        for (File srcFolder : sources.getFiles()) {
+            if (!srcFolder.exists()) {
+                continue;
+            }
+            Path root = srcFolder.toPath();
+            try (Stream<Path> walk = Files.walk(root)) {
+                walk.filter(Files::isRegularFile).forEach(path -> files.putIfAbsent(path, root.relativize(path)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        Path indexFile = index.get().getAsFile().toPath();
+        ImpactIndex impactIndex = ImpactIndex.load(indexFile);
+        impactIndex.retain(files.keySet());
+
+        Map<String, Integer> changedFiles = Collections.synchronizedMap(new TreeMap<>());
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        files.entrySet().parallelStream().forEach(file -> {
+            String fileName = file.getKey().getFileName().toString();
+            try {
+                ImpactIndex.FileEntry entry = impactIndex.update(file.getKey(), current.getKeywords(fileName));
+                if (entry != null && !entry.isEmpty()) {
+                    int changedLines = entry.countChangedLines(current, proposed, fileName);
+                    if (changedLines > 0) {
+                        changedFiles.put(file.getValue().toString().replace(File.separatorChar, '/'), changedLines);
+                    }
+                }
+            } catch (IOException | ParseException e) {
+                errors.add(file.getKey() + ": " + e.getMessage());
+            }
+        });
+
+        try {
+            impactIndex.save(indexFile);
+        } catch (IOException e) {
+            getLogger().warn("Failed to save the impact index", e);
+        }
+
+        int totalLines = 0;
+        for (int changedLines : changedFiles.values()) {
+            totalLines += changedLines;
+        }
+
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"vars\": ");
+        appendVars(json, currentVars);
+        json.append(",\n  \"proposedVars\": ");
+        appendVars(json, newVars);
+        json.append(",\n  \"changedFiles\": ").append(changedFiles.size());
+        json.append(",\n  \"changedLines\": ").append(totalLines);
+        json.append(",\n  \"files\": [");
+        String separator = "\n";
+        for (Map.Entry<String, Integer> file : changedFiles.entrySet()) {
+            json.append(separator).append("    {\"path\": ");
+            appendString(json, file.getKey());
+            json.append(", \"changedLines\": ").append(file.getValue()).append('}');
+            separator = ",\n";
+        }
+        json.append(changedFiles.isEmpty() ? "]" : "\n  ]");
+        json.append(",\n  \"errors\": [");
+        separator = "\n";
+        for (String error : errors) {
+            json.append(separator).append("    ");
+            appendString(json, error);
+            separator = ",\n";
+        }
+        json.append(errors.isEmpty() ? "]" : "\n  ]");
+        json.append("\n}\n");
+
+        try {
+            Path reportFile = report.get().getAsFile().toPath();
+            Files.createDirectories(reportFile.getParent());
+            Files.write(reportFile, json.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        for (String error : errors) {
+            getLogger().warn(error);
+        }
+        getLogger().lifecycle("{} files with {} lines would change, see {}", changedFiles.size(), totalLines, report.get().getAsFile());
+    }
+
+    private static void appendVars(@NotNull StringBuilder json, @NotNull Map<String, Object> vars) {
+        json.append('{');
+        String separator = "";
+        for (Map.Entry<String, Object> var : vars.entrySet()) {
+            json.append(separator);
+            appendString(json, var.getKey());
+            json.append(": ");
+            appendString(json, String.valueOf(var.getValue()));
+            separator = ", ";
+        }
+        json.append('}');
+    }
+
+    private static void appendString(@NotNull StringBuilder json, @NotNull String string) {
+        json.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
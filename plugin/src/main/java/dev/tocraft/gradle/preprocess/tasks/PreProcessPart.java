@@ -0,0 +1,197 @@
+package dev.tocraft.gradle.preprocess.tasks;
+
+import dev.tocraft.gradle.preprocess.data.Keywords;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.*;
+import org.jetbrains.annotations.NotNull;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.util.Map;
+
+/**
+ * The configuration of a {@link PreProcessTask}, whose work is done by a {@link MergedPreProcessTask}.
+ * The properties only follow the ones of the task, so the merged task declares the sources, vars and targets
+ * as its own inputs and outputs instead of reading them from the other task.
+ */
+public class PreProcessPart implements PreProcessConfiguration {
+    private final Property<String> name;
+    private final Property<Boolean> removeComments;
+    private final Property<Integer> parallelThreshold;
+    private final Property<Boolean> pruneImports;
+    private final Property<Boolean> omitInactiveFiles;
+    private final Property<File> outputStore;
+    private final Property<Long> bufferMemoryLimit;
+    private final Property<Boolean> directBuffers;
+    private final Property<Long> cacheMemoryLimit;
+    private final MapProperty<String, Object> vars;
+    private final MapProperty<String, String> remap;
+    private final MapProperty<String, Map<String, String>> fileRemap;
+    private final Property<Boolean> identifierRemap;
+    private final Property<Boolean> remapInactive;
+    private final MapProperty<String, Keywords> keywords;
+    private final Property<File> target;
+    private final ListProperty<File> sources;
+
+    /**
+     * @param factory some object factory to create the properties
+     */
+    @Inject
+    public PreProcessPart(final @NotNull ObjectFactory factory) {
+        this.name = factory.property(String.class);
+        this.removeComments = factory.property(Boolean.class);
+        this.parallelThreshold = factory.property(Integer.class);
+        this.pruneImports = factory.property(Boolean.class);
+        this.omitInactiveFiles = factory.property(Boolean.class);
+        this.outputStore = factory.property(File.class);
+        this.bufferMemoryLimit = factory.property(Long.class);
+        this.directBuffers = factory.property(Boolean.class);
+        this.cacheMemoryLimit = factory.property(Long.class);
+        this.vars = factory.mapProperty(String.class, Object.class);
+        this.remap = factory.mapProperty(String.class, String.class);
+        this.fileRemap = PreProcessTask.createFileRemapProperty(factory);
+        this.identifierRemap = factory.property(Boolean.class);
+        this.remapInactive = factory.property(Boolean.class);
+        this.keywords = factory.mapProperty(String.class, Keywords.class);
+        this.target = factory.property(File.class);
+        this.sources = factory.listProperty(File.class);
+    }
+
+    /**
+     * Connects every property with the one of the task. The task itself isn't resolved until the values are needed
+     *
+     * @param task the preprocess task, whose work shall be done
+     * @return this part
+     */
+    public PreProcessPart from(@NotNull TaskProvider<PreProcessTask> task) {
+        name.set(task.getName());
+        removeComments.set(task.flatMap(PreProcessTask::getRemoveComments));
+        parallelThreshold.set(task.flatMap(PreProcessTask::getParallelThreshold));
+        pruneImports.set(task.flatMap(PreProcessTask::getPruneImports));
+        omitInactiveFiles.set(task.flatMap(PreProcessTask::getOmitInactiveFiles));
+        outputStore.set(task.flatMap(PreProcessTask::getOutputStore));
+        bufferMemoryLimit.set(task.flatMap(PreProcessTask::getBufferMemoryLimit));
+        directBuffers.set(task.flatMap(PreProcessTask::getDirectBuffers));
+        cacheMemoryLimit.set(task.flatMap(PreProcessTask::getCacheMemoryLimit));
+        vars.set(task.flatMap(PreProcessTask::getVars));
+        remap.set(task.flatMap(PreProcessTask::getRemap));
+        fileRemap.set(task.flatMap(PreProcessTask::getFileRemap));
+        identifierRemap.set(task.flatMap(PreProcessTask::getIdentifierRemap));
+        remapInactive.set(task.flatMap(PreProcessTask::getRemapInactive));
+        keywords.set(task.flatMap(PreProcessTask::getKeywords));
+        target.set(task.flatMap(PreProcessTask::getTarget));
+        sources.set(task.flatMap(PreProcessTask::getSources));
+        return this;
+    }
+
+    /**
+     * @return the name of the preprocess task, used for its info file
+     */
+    @Input
+    public Property<String> getName() {
+        return name;
+    }
+
+    @Input
+    @Override
+    public Property<Boolean> getRemoveComments() {
+        return removeComments;
+    }
+
+    @Internal
+    @Override
+    public Property<Integer> getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    @Input
+    @Override
+    public Property<Boolean> getPruneImports() {
+        return pruneImports;
+    }
+
+    @Input
+    @Override
+    public Property<Boolean> getOmitInactiveFiles() {
+        return omitInactiveFiles;
+    }
+
+    @Internal
+    @Override
+    public Property<File> getOutputStore() {
+        return outputStore;
+    }
+
+    @Internal
+    @Override
+    public Property<Long> getBufferMemoryLimit() {
+        return bufferMemoryLimit;
+    }
+
+    @Internal
+    @Override
+    public Property<Boolean> getDirectBuffers() {
+        return directBuffers;
+    }
+
+    @Internal
+    @Override
+    public Property<Long> getCacheMemoryLimit() {
+        return cacheMemoryLimit;
+    }
+
+    @Input
+    @Override
+    public MapProperty<String, String> getRemap() {
+        return remap;
+    }
+
+    @Input
+    @Override
+    public MapProperty<String, Map<String, String>> getFileRemap() {
+        return fileRemap;
+    }
+
+    @Input
+    @Override
+    public Property<Boolean> getIdentifierRemap() {
+        return identifierRemap;
+    }
+
+    @Input
+    @Override
+    public Property<Boolean> getRemapInactive() {
+        return remapInactive;
+    }
+
+    /**
+     * @return the target folder, which is cleared and filled by the merged task
+     */
+    @OutputDirectory
+    @Override
+    public Property<File> getTarget() {
+        return target;
+    }
+
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    @Override
+    public ListProperty<File> getSources() {
+        return sources;
+    }
+
+    @Input
+    @Override
+    public MapProperty<String, Object> getVars() {
+        return vars;
+    }
+
+    @Input
+    @Override
+    public MapProperty<String, Keywords> getKeywords() {
+        return keywords;
+    }
+}
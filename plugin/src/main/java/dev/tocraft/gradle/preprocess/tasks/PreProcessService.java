@@ -0,0 +1,189 @@
+package dev.tocraft.gradle.preprocess.tasks;
+
+import dev.tocraft.gradle.preprocess.data.PreprocessExtension;
+import dev.tocraft.gradle.preprocess.util.CostHistory;
+import dev.tocraft.gradle.preprocess.util.IoThrottle;
+import dev.tocraft.gradle.preprocess.util.OutputStore;
+import dev.tocraft.gradle.preprocess.util.PreProcessor;
+import dev.tocraft.gradle.preprocess.util.ReMapper;
+import org.gradle.api.GradleException;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One work queue shared by the preprocess tasks of all projects, so running them with <code>--parallel</code> doesn't
+ * start more threads than configured and doesn't read and write more files at once than the disk can handle
+ */
+public abstract class PreProcessService implements BuildService<PreProcessService.Parameters>, AutoCloseable {
+    /**
+     * a fork join pool, so the chunks of large files are preprocessed by the same threads instead of the common pool
+     */
+    private final ForkJoinPool executor;
+    private final Set<Path> outputStores = ConcurrentHashMap.newKeySet();
+
+    public PreProcessService() {
+        IoThrottle.configure(getParameters().getIoThreads().get());
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = new ForkJoinPool(Math.max(1, getParameters().getCpuThreads().get()), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("preprocess-" + threads.incrementAndGet());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Preprocesses the files in the shared queue and waits until all of them are done.
+     * The slowest files are queued first and the time every file takes is recorded in the history.
+     *
+     * @param preProcessor the preprocessor of the task
+     * @param reMapper     the ReMapper of the task
+     * @param files        the input files and the files they shall be written to
+     * @param history      the time the files took in previous runs
+     */
+    public void convertFiles(@NotNull PreProcessor preProcessor, @NotNull ReMapper reMapper, @NotNull Map<File, File> files, @NotNull CostHistory history) {
+        convertFiles(Collections.singletonList(new Batch(preProcessor, reMapper, files)), history);
+    }
+
+    /**
+     * Preprocesses the files of all batches in the shared queue and waits until all of them are done.
+     * The files of all batches are ordered together, so the slowest files are queued first.
+     *
+     * @param batches the files and how they shall be preprocessed
+     * @param history the time the files took in previous runs
+     */
+    public void convertFiles(@NotNull List<Batch> batches, @NotNull CostHistory history) {
+        List<Job> jobs = new ArrayList<>();
+        for (Batch batch : batches) {
+            for (Map.Entry<File, File> entry : batch.files.entrySet()) {
+                jobs.add(new Job(batch, entry.getKey(), entry.getValue()));
+            }
+        }
+
+        List<Future<?>> futures = new ArrayList<>(jobs.size());
+        for (Job job : history.sort(jobs, j -> j.inFile)) {
+            futures.add(executor.submit(() -> {
+                long start = System.nanoTime();
+                job.batch.preProcessor.convertFile(job.batch.reMapper, job.inFile, job.outFile);
+                history.record(job.inFile, System.nanoTime() - start);
+            }));
+        }
+
+        RuntimeException error = null;
+        try {
+            // wait in queue order, so the errors are always reported in the same order
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    RuntimeException cause = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new GradleException(e.getCause().getMessage(), e.getCause());
+                    if (error == null) {
+                        error = cause;
+                    } else {
+                        error.addSuppressed(cause);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while preprocessing", e);
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * The stored files, which aren't used by any target folder anymore, are deleted once all tasks are done
+     *
+     * @param outputStore the folder of an output store
+     */
+    public void pruneOnClose(@NotNull Path outputStore) {
+        outputStores.add(outputStore);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        IoThrottle.configure(0);
+        for (Path outputStore : outputStores) {
+            try {
+                OutputStore.prune(outputStore);
+            } catch (IOException e) {
+                // the files are pruned again after the next build
+            }
+        }
+    }
+
+    /**
+     * Files, which are preprocessed with the same preprocessor and ReMapper
+     */
+    public static final class Batch {
+        private final PreProcessor preProcessor;
+        private final ReMapper reMapper;
+        private final Map<File, File> files;
+
+        /**
+         * @param preProcessor the preprocessor for these files
+         * @param reMapper     the ReMapper for these files
+         * @param files        the input files and the files they shall be written to
+         */
+        public Batch(@NotNull PreProcessor preProcessor, @NotNull ReMapper reMapper, @NotNull Map<File, File> files) {
+            this.preProcessor = preProcessor;
+            this.reMapper = reMapper;
+            this.files = files;
+        }
+
+        /**
+         * Preprocesses the files one after another in the current thread
+         */
+        void convert() {
+            for (Map.Entry<File, File> file : files.entrySet()) {
+                preProcessor.convertFile(reMapper, file.getKey(), file.getValue());
+            }
+        }
+    }
+
+    private static final class Job {
+        private final Batch batch;
+        private final File inFile;
+        private final File outFile;
+
+        private Job(Batch batch, File inFile, File outFile) {
+            this.batch = batch;
+            this.inFile = inFile;
+            this.outFile = outFile;
+        }
+    }
+
+    public interface Parameters extends BuildServiceParameters {
+        /**
+         * @see PreprocessExtension#cpuThreads
+         */
+        Property<Integer> getCpuThreads();
+
+        /**
+         * @see PreprocessExtension#ioThreads
+         */
+        Property<Integer> getIoThreads();
+    }
+}
@@ -1,11 +1,15 @@
 package dev.tocraft.gradle.preprocess.tasks;
 
 import dev.tocraft.gradle.preprocess.data.Keywords;
+import dev.tocraft.gradle.preprocess.util.BufferPool;
+import dev.tocraft.gradle.preprocess.util.CostHistory;
 import dev.tocraft.gradle.preprocess.util.ParseException;
+import dev.tocraft.gradle.preprocess.util.ParsedFileCache;
 import dev.tocraft.gradle.preprocess.util.PreProcessor;
 import dev.tocraft.gradle.preprocess.data.PreprocessExtension;
 import dev.tocraft.gradle.preprocess.util.ReMapper;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.Project;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.model.ObjectFactory;
@@ -21,22 +25,37 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * The actual preprocessor task
  */
-public class PreProcessTask extends DefaultTask {
+public class PreProcessTask extends DefaultTask implements PreProcessConfiguration {
     private final Property<Boolean> removeComments;
+    private final Property<Integer> parallelThreshold;
+    private final Property<Boolean> pruneImports;
+    private final Property<Boolean> omitInactiveFiles;
+    private final Property<File> outputStore;
+    private final Property<Long> bufferMemoryLimit;
+    private final Property<Boolean> directBuffers;
+    private final Property<Long> cacheMemoryLimit;
     private final MapProperty<String, Object> vars;
     private final MapProperty<String, String> remap;
+    private final MapProperty<String, Map<String, String>> fileRemap;
+    private final Property<Boolean> identifierRemap;
+    private final Property<Boolean> remapInactive;
     private final MapProperty<String, Keywords> keywords;
     private final Property<File> target;
     private final ListProperty<File> sources;
     private final ConfigurableFileCollection outcomingFiles;
     private final ConfigurableFileCollection incomingFiles;
+    private final Property<PreProcessService> service;
+    private final Property<File> costHistory;
 
     /**
      * @param factory some object factory to create the properties
@@ -44,14 +63,31 @@ public class PreProcessTask extends DefaultTask {
     @Inject
     public PreProcessTask(final @NotNull ObjectFactory factory) {
         this.removeComments = factory.property(Boolean.class).convention(false);
+        this.parallelThreshold = factory.property(Integer.class).convention(0);
+        this.pruneImports = factory.property(Boolean.class).convention(false);
+        this.omitInactiveFiles = factory.property(Boolean.class).convention(false);
+        this.outputStore = factory.property(File.class);
+        this.bufferMemoryLimit = factory.property(Long.class).convention(BufferPool.getMemoryLimit());
+        this.directBuffers = factory.property(Boolean.class).convention(false);
+        this.cacheMemoryLimit = factory.property(Long.class).convention(ParsedFileCache.getMemoryLimit());
         this.vars = factory.mapProperty(String.class, Object.class);
         this.remap = factory.mapProperty(String.class, String.class);
+        this.fileRemap = createFileRemapProperty(factory);
+        this.identifierRemap = factory.property(Boolean.class).convention(false);
+        this.remapInactive = factory.property(Boolean.class).convention(true);
         this.sources = factory.listProperty(File.class);
         this.keywords = factory.mapProperty(String.class, Keywords.class);
         this.target = factory.property(File.class);
 
         this.incomingFiles = factory.fileCollection();
         this.outcomingFiles = factory.fileCollection();
+        this.costHistory = factory.property(File.class);
+        this.service = factory.property(PreProcessService.class);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static MapProperty<String, Map<String, String>> createFileRemapProperty(@NotNull ObjectFactory factory) {
+        return (MapProperty) factory.mapProperty(String.class, Map.class);
     }
 
     private static final class Entry {
@@ -74,6 +110,69 @@ public class PreProcessTask extends DefaultTask {
         return removeComments;
     }
 
+    /**
+     * @return the amount of lines a file needs, so it's preprocessed in parallel chunks
+     * @see PreprocessExtension#parallelThreshold
+     */
+    @Internal
+    public Property<Integer> getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * @return if unused imports of Java and Kotlin files shall be removed
+     * @see PreprocessExtension#pruneImports
+     */
+    @Input
+    public Property<Boolean> getPruneImports() {
+        return pruneImports;
+    }
+
+    /**
+     * @return if Java and Kotlin files, whose code is completely commented out, shall be left out
+     * @see PreprocessExtension#omitInactiveFiles
+     */
+    @Input
+    public Property<Boolean> getOmitInactiveFiles() {
+        return omitInactiveFiles;
+    }
+
+    /**
+     * @return the folder the preprocessed files are stored in by their content. If it's not set, the files are written directly
+     * @see PreprocessExtension#outputStore
+     */
+    @Internal
+    public Property<File> getOutputStore() {
+        return outputStore;
+    }
+
+    /**
+     * @return the maximum amount of bytes that leased and idle read and write buffers may hold
+     * @see PreprocessExtension#bufferMemoryLimit
+     */
+    @Internal
+    public Property<Long> getBufferMemoryLimit() {
+        return bufferMemoryLimit;
+    }
+
+    /**
+     * @return if the read and write buffers shall be allocated outside the heap
+     * @see PreprocessExtension#directBuffers
+     */
+    @Internal
+    public Property<Boolean> getDirectBuffers() {
+        return directBuffers;
+    }
+
+    /**
+     * @return the estimated amount of bytes parsed files may use, while they are kept in memory between builds
+     * @see PreprocessExtension#cacheMemoryLimit
+     */
+    @Internal
+    public Property<Long> getCacheMemoryLimit() {
+        return cacheMemoryLimit;
+    }
+
     /**
      * @return the map that will be used for remapping
      */
@@ -82,6 +181,33 @@ public class PreProcessTask extends DefaultTask {
         return remap;
     }
 
+    /**
+     * @return additional maps for remapping, where the key is the file extension they are used for
+     * @see PreprocessExtension#fileRemapper
+     */
+    @Input
+    public MapProperty<String, Map<String, String>> getFileRemap() {
+        return fileRemap;
+    }
+
+    /**
+     * @return if the remap keys are identifiers instead of regexes
+     * @see PreprocessExtension#identifierRemap
+     */
+    @Input
+    public Property<Boolean> getIdentifierRemap() {
+        return identifierRemap;
+    }
+
+    /**
+     * @return if lines commented out by the preprocessor shall be remapped
+     * @see PreprocessExtension#remapInactive
+     */
+    @Input
+    public Property<Boolean> getRemapInactive() {
+        return remapInactive;
+    }
+
     /**
      * @return the target folder where the preprocessed files will be written to
      */
@@ -132,6 +258,23 @@ public class PreProcessTask extends DefaultTask {
         return this.incomingFiles;
     }
 
+    /**
+     * @return the shared work queue. If it's not set, the files are preprocessed one after another
+     */
+    @Internal
+    public Property<PreProcessService> getService() {
+        return service;
+    }
+
+    /**
+     * @return the file the time every file took is stored in, so the slowest files can be started first next time
+     */
+    @LocalState
+    @Optional
+    public Property<File> getCostHistory() {
+        return costHistory;
+    }
+
     @Internal
     @Override
     public String getDescription() {
@@ -143,56 +286,92 @@ public class PreProcessTask extends DefaultTask {
      */
     @TaskAction
     public void preprocess() {
-        if (sources.get().isEmpty()) {
-            throw new ParseException("No sources defined or source folder is empty!");
+        PreProcessor preProcessor = createPreProcessor();
+        ReMapper reMapper = createReMapper();
+
+        Map<File, File> files = collectFiles(getProject(), getName(), sources.get(), target.get(), new HashMap<>());
+
+        if (service.isPresent()) {
+            CostHistory history = costHistory.isPresent() ? CostHistory.load(costHistory.get().toPath()) : CostHistory.empty();
+            if (outputStore.isPresent()) {
+                service.get().pruneOnClose(outputStore.get().toPath());
+            }
+            service.get().convertFiles(preProcessor, reMapper, files, history);
+            if (costHistory.isPresent()) {
+                history.retain(files.keySet());
+                try {
+                    history.save(costHistory.get().toPath());
+                } catch (IOException e) {
+                    getLogger().warn("Failed to save the cost history", e);
+                }
+            }
+        } else {
+            for (Map.Entry<File, File> file : files.entrySet()) {
+                preProcessor.convertFile(reMapper, file.getKey(), file.getValue());
+            }
         }
 
-        PreProcessor preProcessor = new PreProcessor(removeComments.get(), vars.get(), keywords.get());
-        ReMapper reMapper = new ReMapper(remap.get());
+        this.outcomingFiles.setFrom(files.values());
+        this.incomingFiles.setFrom(files.keySet());
+
+        getProject().getLogger().info("PreProcessed Successfully");
+    }
+
+    /**
+     * Lists the files of all source folders, clears the target folder and writes the info file
+     *
+     * @param project the project the relative source folders belong to
+     * @param name    the name of the preprocess task, used for the info file
+     * @param sources the source folders, if a file exists in multiple folders, the first one wins
+     * @param target  the folder the files shall be written to
+     * @param walked  the files of the source folders, that were already listed. Folders shared by multiple tasks are only walked once
+     * @return the input files and the files they shall be written to
+     */
+    static Map<File, File> collectFiles(@NotNull Project project, @NotNull String name, @NotNull List<File> sources, @NotNull File target, @NotNull Map<Path, List<Path>> walked) {
+        if (sources.isEmpty()) {
+            throw new ParseException("No sources defined or source folder is empty!");
+        }
 
         List<Entry> sourceFiles = new ArrayList<>();
 
-        for (File srcFolder : sources.get()) {
-            final File srcFolderFile = srcFolder.isAbsolute() ? srcFolder : new File(this.getProject().getProjectDir(), srcFolder.getPath());
+        for (File srcFolder : sources) {
+            final File srcFolderFile = srcFolder.isAbsolute() ? srcFolder : new File(project.getProjectDir(), srcFolder.getPath());
             Path inBasePath = srcFolderFile.toPath();
-            for (File file : this.getProject().fileTree(inBasePath)) {
-                Path relPath = inBasePath.relativize(file.toPath());
-                sourceFiles.add(new Entry(relPath.toString(), inBasePath, target.get().toPath()));
+            List<Path> relPaths = walked.computeIfAbsent(inBasePath, path -> {
+                List<Path> found = new ArrayList<>();
+                for (File file : project.fileTree(path)) {
+                    found.add(path.relativize(file.toPath()));
+                }
+                return found;
+            });
+            for (Path relPath : relPaths) {
+                sourceFiles.add(new Entry(relPath.toString(), inBasePath, target.toPath()));
             }
         }
 
-        getProject().getLogger().info("Source folders in use: {}", sources);
+        project.getLogger().info("Source folders in use: {}", sources);
 
-        getProject().delete(target.get());
+        project.delete(target);
 
-        Set<File> foundInFiles = new HashSet<>();
+        // if a file exists in multiple source folders, the first one wins
+        Map<File, File> files = new LinkedHashMap<>();
         Set<File> foundOutFiles = new HashSet<>();
-
-        // iterate backwards so files can overwrite each other
-        for (int i =  sourceFiles.size() - 1; i >= 0; i--) {
-            Entry entry = sourceFiles.get(i);
-
-            File inFile = entry.inBase.resolve(entry.relPath).toFile();
+        for (Entry entry : sourceFiles) {
             File outFile = entry.outBase.resolve(entry.relPath).toFile();
-
-            preProcessor.convertFile(reMapper, inFile, outFile);
-
-            foundInFiles.add(inFile);
-            foundOutFiles.add(outFile);
+            if (foundOutFiles.add(outFile)) {
+                files.put(entry.inBase.resolve(entry.relPath).toFile(), outFile);
+            }
         }
 
-        this.outcomingFiles.setFrom(foundOutFiles);
-        this.incomingFiles.setFrom(foundInFiles);
-
         try {
-            Path infoFile = target.get().toPath().getParent().resolve(getName() + ".txt");
+            Path infoFile = target.toPath().getParent().resolve(name + ".txt");
             //noinspection ResultOfMethodCallIgnored
             infoFile.getParent().toFile().mkdirs();
-            Files.write(infoFile, ("Target: " + getTarget().get().toPath() + "\nSources: " + getSources().get() + "\nTotal Files: " + sourceFiles.size()).getBytes());
+            Files.write(infoFile, ("Target: " + target.toPath() + "\nSources: " + sources + "\nTotal Files: " + sourceFiles.size()).getBytes());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
-        getProject().getLogger().info("PreProcessed Successfully");
+        return files;
     }
 }
@@ -0,0 +1,97 @@
+package dev.tocraft.gradle.preprocess.tasks;
+
+import dev.tocraft.gradle.preprocess.data.Keywords;
+import dev.tocraft.gradle.preprocess.data.PreprocessExtension;
+import dev.tocraft.gradle.preprocess.util.PreProcessor;
+import dev.tocraft.gradle.preprocess.util.ReMapper;
+import org.gradle.api.artifacts.transform.*;
+import org.gradle.api.attributes.Attribute;
+import org.gradle.api.file.FileSystemLocation;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * Preprocesses and remaps dependency jars. Gradle caches the result per jar and configuration,
+ * so every consuming project with the same vars reuses it.
+ */
+@CacheableTransform
+public abstract class PreProcessTransform implements TransformAction<PreProcessTransform.Parameters> {
+    /**
+     * Request this attribute with <code>true</code> on a configuration, so its jars are preprocessed
+     */
+    public static final Attribute<Boolean> PREPROCESSED = Attribute.of("dev.tocraft.preprocessed", Boolean.class);
+
+    /**
+     * @return the jar that shall be preprocessed
+     */
+    @InputArtifact
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract Provider<FileSystemLocation> getInputArtifact();
+
+    @Override
+    public void transform(@NotNull TransformOutputs outputs) {
+        File input = getInputArtifact().get().getAsFile();
+        if (!input.isFile()) {
+            // e.g. a missing file dependency
+            return;
+        }
+        Parameters parameters = getParameters();
+        PreProcessor preProcessor = new PreProcessor(parameters.getVars().get(), parameters.getKeywords().get());
+        ReMapper reMapper = new ReMapper(parameters.getRemap().get(), parameters.getFileRemap().get(), parameters.getIdentifierRemap().get(), parameters.getRemapInactive().get());
+        // the name stays the same, so the classpath is still readable
+        File output = outputs.file(input.getName());
+        try {
+            preProcessor.convertArchive(reMapper, input.toPath(), output.toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public interface Parameters extends TransformParameters {
+        /**
+         * @see PreprocessExtension#vars
+         */
+        @Input
+        MapProperty<String, Object> getVars();
+
+        /**
+         * @see PreprocessExtension#keywords
+         */
+        @Input
+        MapProperty<String, Keywords> getKeywords();
+
+        /**
+         * @see PreprocessExtension#remapper
+         */
+        @Input
+        MapProperty<String, String> getRemap();
+
+        /**
+         * @see PreprocessExtension#fileRemapper
+         */
+        @Input
+        MapProperty<String, Map<String, String>> getFileRemap();
+
+        /**
+         * @see PreprocessExtension#identifierRemap
+         */
+        @Input
+        Property<Boolean> getIdentifierRemap();
+
+        /**
+         * @see PreprocessExtension#remapInactive
+         */
+        @Input
+        Property<Boolean> getRemapInactive();
+    }
+}
@@ -0,0 +1,67 @@
+package dev.tocraft.gradle.preprocess.tasks;
+
+import dev.tocraft.gradle.preprocess.data.PreprocessExtension;
+import dev.tocraft.gradle.preprocess.util.VarMatrix;
+import org.gradle.api.GradleException;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.jetbrains.annotations.NotNull;
+
+import javax.inject.Inject;
+import java.util.Map;
+
+/**
+ * Checks the if-statements of all sources for every var set of the matrix, while reading every file only once
+ *
+ * @see PreprocessExtension#matrix
+ */
+@CacheableTask
+public class ValidatePreProcessMatrixTask extends AbstractValidatePreProcessTask {
+    private final MapProperty<String, Map<String, Object>> matrix;
+
+    /**
+     * @param factory some object factory to create the properties
+     */
+    @Inject
+    public ValidatePreProcessMatrixTask(final @NotNull ObjectFactory factory) {
+        super(factory);
+        this.matrix = createMatrixProperty(factory);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static MapProperty<String, Map<String, Object>> createMatrixProperty(@NotNull ObjectFactory factory) {
+        return (MapProperty) factory.mapProperty(String.class, Map.class);
+    }
+
+    /**
+     * @return the vars of every var set by its name
+     */
+    @Input
+    public MapProperty<String, Map<String, Object>> getMatrix() {
+        return matrix;
+    }
+
+    @Internal
+    @Override
+    public String getDescription() {
+        return "Checks the preprocessor statements of all sources for every var set of the matrix.";
+    }
+
+    /**
+     * The actual validate action
+     */
+    @TaskAction
+    public void validate() {
+        if (matrix.get().isEmpty()) {
+            throw new GradleException("No var sets defined in preprocess.matrix!");
+        }
+        VarMatrix varMatrix = new VarMatrix(matrix.get(), getKeywords().get());
+        int files = validateSources(varMatrix::validateFile);
+        writeReport("Checked Files: " + files + "\nVar Sets: " + varMatrix.size());
+        getLogger().info("Checked {} files with {} var sets", files, varMatrix.size());
+    }
+}
@@ -0,0 +1,54 @@
+package dev.tocraft.gradle.preprocess.tasks;
+
+import dev.tocraft.gradle.preprocess.util.PreProcessor;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.jetbrains.annotations.NotNull;
+
+import javax.inject.Inject;
+
+/**
+ * Checks the if-statements of all sources without preprocessing them, so every error is reported at once
+ */
+@CacheableTask
+public class ValidatePreProcessTask extends AbstractValidatePreProcessTask {
+    private final MapProperty<String, Object> vars;
+
+    /**
+     * @param factory some object factory to create the properties
+     */
+    @Inject
+    public ValidatePreProcessTask(final @NotNull ObjectFactory factory) {
+        super(factory);
+        this.vars = factory.mapProperty(String.class, Object.class);
+    }
+
+    /**
+     * @return the vars the conditions are evaluated with
+     */
+    @Input
+    public MapProperty<String, Object> getVars() {
+        return vars;
+    }
+
+    @Internal
+    @Override
+    public String getDescription() {
+        return "Checks the preprocessor statements of all sources without preprocessing them.";
+    }
+
+    /**
+     * The actual validate action
+     */
+    @TaskAction
+    public void validate() {
+        PreProcessor preProcessor = new PreProcessor(vars.get(), getKeywords().get());
+        int files = validateSources(preProcessor::validateFile);
+        writeReport("Checked Files: " + files);
+        getLogger().info("Checked {} files", files);
+    }
+}
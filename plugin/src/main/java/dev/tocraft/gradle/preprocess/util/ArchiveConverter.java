@@ -0,0 +1,62 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Preprocesses the entries of zip and jar archives through the NIO zip file system, without extracting them.
+ * The archive is copied first and only the changed entries are replaced, so the zip file system copies
+ * every other entry without decompressing and compressing it again.
+ */
+final class ArchiveConverter {
+    private ArchiveConverter() {
+    }
+
+    /**
+     * @see PreProcessor#convertArchive(ReMapper, Path, Path)
+     */
+    static int convert(@NotNull PreProcessor preProcessor, @NotNull ReMapper reMapper, @NotNull Path in, @NotNull Path out) throws IOException {
+        if (!Files.exists(out) || !Files.isSameFile(in, out)) {
+            Files.createDirectories(out.toAbsolutePath().getParent());
+            Files.copy(in, out, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        try (FileSystem zip = FileSystems.newFileSystem(out, (ClassLoader) null)) {
+            List<Path> entries = new ArrayList<>();
+            for (Path root : zip.getRootDirectories()) {
+                try (Stream<Path> walk = Files.walk(root)) {
+                    walk.filter(Files::isRegularFile).forEach(entries::add);
+                }
+            }
+
+            // entries are read and preprocessed in parallel, but written one after another
+            Map<Path, List<String>> changed = new ConcurrentHashMap<>();
+            entries.parallelStream().forEach(entry -> {
+                try {
+                    List<String> lines = preProcessor.convertBytes(ByteBuffer.wrap(Files.readAllBytes(entry)), entry.getFileName().toString(), reMapper);
+                    if (lines != null) {
+                        changed.put(entry, lines);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            for (Map.Entry<Path, List<String>> entry : changed.entrySet()) {
+                FileIO.writeLines(entry.getKey(), entry.getValue());
+            }
+            return changed.size();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
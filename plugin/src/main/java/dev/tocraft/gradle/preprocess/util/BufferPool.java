@@ -0,0 +1,214 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import dev.tocraft.gradle.preprocess.data.PreprocessExtension;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reusable buffers for reading and writing files, so not every file allocates its own.
+ * The buffers are shared by all threads, since worker threads may come and go, and the memory held by leased and idle buffers together never exceeds {@link #getMemoryLimit()}.
+ * When the limit is reached, idle buffers are dropped and if that isn't enough, the buffer is allocated outside the pool and only kept afterwards if there is room again.
+ * The configuration is global, so the last call of {@link #configure(long, boolean)} applies to every task. Capacities up to 4 MiB are rounded up to the next power of two, larger buffers are allocated exactly and dropped after use.
+ */
+public final class BufferPool {
+    private static final int MIN_CLASS = 13; // 8 KiB
+    /**
+     * larger buffers are allocated with the exact capacity and never pooled, so big files don't round up to twice their size
+     */
+    private static final int MAX_CLASS = 22; // 4 MiB
+    /**
+     * the size of buffers used for streaming writes
+     */
+    static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final Queue<ByteBuffer>[] BYTE_BUFFERS = new Queue[MAX_CLASS + 1];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final Queue<CharBuffer>[] CHAR_BUFFERS = new Queue[MAX_CLASS + 1];
+    /**
+     * the leased buffers, which are counted in {@link #usedBytes}. Buffers allocated while the limit was reached aren't in here
+     */
+    private static final Set<Buffer> LEASED = Collections.newSetFromMap(Collections.synchronizedMap(new IdentityHashMap<>()));
+    /**
+     * the bytes held by idle and counted leased buffers
+     */
+    private static final AtomicLong usedBytes = new AtomicLong();
+
+    static {
+        for (int i = MIN_CLASS; i <= MAX_CLASS; i++) {
+            BYTE_BUFFERS[i] = new ConcurrentLinkedQueue<>();
+            CHAR_BUFFERS[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * @see PreprocessExtension#bufferMemoryLimit
+     */
+    private static volatile long memoryLimit = 64L << 20;
+    /**
+     * @see PreprocessExtension#directBuffers
+     */
+    private static volatile boolean direct = false;
+
+    private BufferPool() {
+    }
+
+    /**
+     * @param memoryLimit the maximum amount of bytes leased and idle buffers may hold
+     * @param direct      if new byte buffers shall be allocated outside the heap
+     */
+    public static void configure(long memoryLimit, boolean direct) {
+        BufferPool.memoryLimit = memoryLimit;
+        BufferPool.direct = direct;
+        if (usedBytes.get() > memoryLimit) {
+            clear();
+        }
+    }
+
+    /**
+     * @return the maximum amount of bytes leased and idle buffers may hold
+     */
+    public static long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Removes all idle buffers
+     */
+    public static void clear() {
+        for (int i = MIN_CLASS; i <= MAX_CLASS; i++) {
+            while (BYTE_BUFFERS[i].poll() != null) {
+                usedBytes.addAndGet(-(1L << i));
+            }
+            while (CHAR_BUFFERS[i].poll() != null) {
+                usedBytes.addAndGet(-(2L << i));
+            }
+        }
+    }
+
+    /**
+     * @param capacity the minimal capacity
+     * @return a cleared buffer, which should be passed to {@link #release(ByteBuffer)} afterwards
+     */
+    public static @NotNull ByteBuffer acquireBytes(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass <= MAX_CLASS) {
+            ByteBuffer buffer = BYTE_BUFFERS[sizeClass].poll();
+            if (buffer != null) {
+                // idle buffers are already counted
+                LEASED.add(buffer);
+                buffer.clear();
+                return buffer;
+            }
+            capacity = 1 << sizeClass;
+        }
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        if (reserveLeased(capacity)) {
+            LEASED.add(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * @param capacity the minimal capacity
+     * @return a cleared buffer, which should be passed to {@link #release(CharBuffer)} afterwards
+     */
+    public static @NotNull CharBuffer acquireChars(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass <= MAX_CLASS) {
+            CharBuffer buffer = CHAR_BUFFERS[sizeClass].poll();
+            if (buffer != null) {
+                // idle buffers are already counted
+                LEASED.add(buffer);
+                buffer.clear();
+                return buffer;
+            }
+            capacity = 1 << sizeClass;
+        }
+        CharBuffer buffer = CharBuffer.allocate(capacity);
+        if (reserveLeased(2L * capacity)) {
+            LEASED.add(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * @param buffer the buffer that is no longer used, can be null
+     */
+    public static void release(@Nullable ByteBuffer buffer) {
+        if (buffer != null && keep(buffer, buffer.capacity())) {
+            BYTE_BUFFERS[sizeClass(buffer.capacity())].offer(buffer);
+        }
+    }
+
+    /**
+     * @param buffer the buffer that is no longer used, can be null
+     */
+    public static void release(@Nullable CharBuffer buffer) {
+        if (buffer != null && keep(buffer, 2L * buffer.capacity())) {
+            CHAR_BUFFERS[sizeClass(buffer.capacity())].offer(buffer);
+        }
+    }
+
+    /**
+     * Ends the lease of the buffer
+     *
+     * @return if the buffer shall be put back into the pool, its bytes are counted then
+     */
+    private static boolean keep(@NotNull Buffer buffer, long bytes) {
+        boolean poolable = isPoolable(buffer.capacity());
+        if (LEASED.remove(buffer)) {
+            if (!poolable) {
+                usedBytes.addAndGet(-bytes);
+            }
+            return poolable;
+        }
+        // the buffer was allocated while the limit was reached
+        return poolable && reserve(bytes);
+    }
+
+    /**
+     * Counts a new buffer against the limit. If the limit is reached, the idle buffers are dropped to make room
+     *
+     * @return if the buffer is counted, otherwise it's allocated outside the pool
+     */
+    private static boolean reserveLeased(long bytes) {
+        if (reserve(bytes)) {
+            return true;
+        }
+        clear();
+        return reserve(bytes);
+    }
+
+    private static boolean reserve(long bytes) {
+        long current;
+        do {
+            current = usedBytes.get();
+            if (current + bytes > memoryLimit) {
+                return false;
+            }
+        } while (!usedBytes.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    private static boolean isPoolable(int capacity) {
+        return Integer.bitCount(capacity) == 1 && capacity >= 1 << MIN_CLASS && capacity <= 1 << MAX_CLASS;
+    }
+
+    private static int sizeClass(int capacity) {
+        if (capacity <= 1 << MIN_CLASS) {
+            return MIN_CLASS;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1);
+    }
+}
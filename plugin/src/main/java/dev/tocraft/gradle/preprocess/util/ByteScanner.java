@@ -0,0 +1,123 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Searches raw UTF-8 bytes for any of a few strings, so files without directives or remap keys don't have to be decoded.
+ * If the strings only start with a few different bytes, 8 bytes are checked at once for these bytes.
+ */
+final class ByteScanner {
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    /**
+     * up to this amount of different first bytes, the bytes are searched 8 at a time
+     */
+    private static final int MAX_WORD_BYTES = 4;
+
+    /**
+     * the strings, grouped by their first byte
+     */
+    private final byte[][][] needles = new byte[256][][];
+    private final boolean[] firstBytes = new boolean[256];
+    private final long[] broadcasts;
+    private final boolean matchesEverything;
+
+    /**
+     * @param strings the strings to search for. An empty string matches everything
+     */
+    ByteScanner(@NotNull Collection<String> strings) {
+        List<List<byte[]>> grouped = new ArrayList<>(256);
+        for (int i = 0; i < 256; i++) {
+            grouped.add(new ArrayList<>());
+        }
+        boolean empty = false;
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length == 0) {
+                empty = true;
+            } else {
+                grouped.get(bytes[0] & 0xFF).add(bytes);
+            }
+        }
+        this.matchesEverything = empty;
+
+        List<Long> broadcasts = new ArrayList<>();
+        for (int i = 0; i < 256; i++) {
+            if (!grouped.get(i).isEmpty()) {
+                needles[i] = grouped.get(i).toArray(new byte[0][]);
+                firstBytes[i] = true;
+                broadcasts.add(LOW_BITS * i);
+            }
+        }
+        this.broadcasts = new long[broadcasts.size() <= MAX_WORD_BYTES ? broadcasts.size() : 0];
+        for (int i = 0; i < this.broadcasts.length; i++) {
+            this.broadcasts[i] = broadcasts.get(i);
+        }
+    }
+
+    /**
+     * @param bytes the bytes to search, the position won't be changed
+     * @return true if any of the strings is contained in the bytes
+     */
+    boolean containsAny(@NotNull ByteBuffer bytes) {
+        if (matchesEverything) {
+            return true;
+        }
+        int from = bytes.position();
+        int to = bytes.limit();
+        int i = from;
+        if (broadcasts.length > 0) {
+            // skip 8 bytes at once, as long as none of them is the first byte of a string
+            while (i + 8 <= to) {
+                long word = bytes.getLong(i);
+                boolean candidate = false;
+                for (long broadcast : broadcasts) {
+                    long xor = word ^ broadcast;
+                    if (((xor - LOW_BITS) & ~xor & HIGH_BITS) != 0) {
+                        candidate = true;
+                        break;
+                    }
+                }
+                if (candidate) {
+                    for (int j = i; j < i + 8; j++) {
+                        if (matchesAt(bytes, j, to)) {
+                            return true;
+                        }
+                    }
+                }
+                i += 8;
+            }
+        }
+        for (; i < to; i++) {
+            if (matchesAt(bytes, i, to)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesAt(@NotNull ByteBuffer bytes, int i, int to) {
+        int first = bytes.get(i) & 0xFF;
+        if (!firstBytes[first]) {
+            return false;
+        }
+        for (byte[] needle : needles[first]) {
+            if (i + needle.length <= to) {
+                int j = 1;
+                while (j < needle.length && bytes.get(i + j) == needle[j]) {
+                    j++;
+                }
+                if (j == needle.length) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,248 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import dev.tocraft.gradle.preprocess.util.VarSnapshot.Value;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A condition of an if-statement, compiled once, so evaluating it only reads the vars by their index
+ */
+abstract class Condition {
+    private static final Pattern EXPR_PATTERN = Pattern.compile("(.+)(==|!=|<=|>=|<|>)(.+)");
+    private static final String OR_PATTERN = Pattern.quote("||");
+    private static final String AND_PATTERN = Pattern.quote("&&");
+
+    private static final Condition FALSE = new Condition() {
+        @Override
+        boolean test(@NotNull Value[] values) {
+            return false;
+        }
+
+        @Override
+        long testAll(@NotNull Value[][] values, long mask, @NotNull Failures failures) {
+            return 0;
+        }
+    };
+
+    /**
+     * @param values the values of the vars, in the order of the snapshot this condition was compiled with. Vars without a value are null
+     * @return the value of the condition
+     * @throws IllegalArgumentException if the values can't be compared or a reached comparison contains something that's neither a var nor a literal
+     */
+    abstract boolean test(@NotNull Value[] values);
+
+    /**
+     * Evaluates the condition for up to 64 var sets at once, with one bit per var set
+     *
+     * @param values   the values of the vars of every var set
+     * @param mask     the var sets, which shall be evaluated
+     * @param failures the var sets, for which the condition can't be evaluated, are added here
+     * @return the var sets, for which the condition is true
+     */
+    long testAll(@NotNull Value[][] values, long mask, @NotNull Failures failures) {
+        long result = 0;
+        for (long bits = mask; bits != 0; bits &= bits - 1) {
+            int i = Long.numberOfTrailingZeros(bits);
+            try {
+                if (test(values[i])) {
+                    result |= 1L << i;
+                }
+            } catch (IllegalArgumentException e) {
+                failures.add(i, e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param condition the trimmed condition
+     * @param vars      the vars, used to find the index of every var in the condition
+     * @return the compiled condition
+     */
+    static @NotNull Condition compile(@NotNull String condition, @NotNull VarSnapshot vars) {
+        String[] parts = condition.split(OR_PATTERN);
+        if (parts.length > 1) {
+            Condition[] conditions = compileAll(parts, vars);
+            return new Condition() {
+                @Override
+                boolean test(@NotNull Value[] values) {
+                    for (Condition condition : conditions) {
+                        if (condition.test(values)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+
+                @Override
+                long testAll(@NotNull Value[][] values, long mask, @NotNull Failures failures) {
+                    long result = 0;
+                    // var sets, which are already true or failed, aren't evaluated further
+                    for (Condition condition : conditions) {
+                        mask &= ~failures.mask;
+                        if (mask == 0) {
+                            break;
+                        }
+                        long tested = condition.testAll(values, mask, failures);
+                        result |= tested;
+                        mask &= ~tested;
+                    }
+                    return result;
+                }
+            };
+        }
+        parts = condition.split(AND_PATTERN);
+        if (parts.length > 1) {
+            Condition[] conditions = compileAll(parts, vars);
+            return new Condition() {
+                @Override
+                boolean test(@NotNull Value[] values) {
+                    for (Condition condition : conditions) {
+                        if (!condition.test(values)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+
+                @Override
+                long testAll(@NotNull Value[][] values, long mask, @NotNull Failures failures) {
+                    for (Condition condition : conditions) {
+                        if (mask == 0) {
+                            break;
+                        }
+                        mask = condition.testAll(values, mask, failures);
+                    }
+                    return mask;
+                }
+            };
+        }
+
+        Matcher matcher = EXPR_PATTERN.matcher(condition);
+        if (matcher.matches()) {
+            String left = matcher.group(1).trim();
+            String operator = matcher.group(2);
+            String right = matcher.group(3).trim();
+            // a var can be checked for equality with a word, e.g. loader == neoforge
+            boolean equality = operator.equals("==") || operator.equals("!=");
+            return new Comparison(operand(left, vars, equality && vars.indexOf(right) >= 0), operator, operand(right, vars, equality && vars.indexOf(left) >= 0));
+        }
+
+        // unknown vars are false
+        int index = vars.indexOf(condition);
+        if (index < 0) {
+            return FALSE;
+        }
+        return new Condition() {
+            @Override
+            boolean test(@NotNull Value[] values) {
+                return values[index] != null && values[index].isTrue();
+            }
+        };
+    }
+
+    private static @NotNull Condition[] compileAll(@NotNull String[] parts, @NotNull VarSnapshot vars) {
+        Condition[] conditions = new Condition[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            conditions[i] = compile(parts[i].trim(), vars);
+        }
+        return conditions;
+    }
+
+    /**
+     * Unknown tokens only fail when they are evaluated, so they can be skipped by || and &&
+     *
+     * @param string if the token is a string literal, if it's neither a var nor a number, boolean or version
+     * @return the var or the literal the token stands for
+     */
+    private static @NotNull Operand operand(@NotNull String token, @NotNull VarSnapshot vars, boolean string) {
+        int index = vars.indexOf(token);
+        if (index >= 0) {
+            return new Operand(index, null, token);
+        }
+        Value literal = Value.parseLiteral(token);
+        return new Operand(-1, literal == null && string ? Value.string(token) : literal, token);
+    }
+
+    private static final class Operand {
+        private final int index;
+        private final @Nullable Value literal;
+        private final String token;
+
+        private Operand(int index, @Nullable Value literal, String token) {
+            this.index = index;
+            this.literal = literal;
+            this.token = token;
+        }
+
+        private @NotNull Value get(@NotNull Value[] values) {
+            Value value = index >= 0 ? values[index] : literal;
+            if (value == null) {
+                throw new IllegalArgumentException("Unknown var: " + token);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * The var sets, for which a condition can't be evaluated, with one bit per var set
+     */
+    static final class Failures {
+        long mask;
+        final String[] messages = new String[64];
+
+        void add(int i, String message) {
+            mask |= 1L << i;
+            messages[i] = message;
+        }
+    }
+
+    private static final class Comparison extends Condition {
+        private final Operand lhs;
+        private final String operator;
+        private final Operand rhs;
+
+        private Comparison(Operand lhs, String operator, Operand rhs) {
+            this.lhs = lhs;
+            this.operator = operator;
+            this.rhs = rhs;
+        }
+
+        @Override
+        boolean test(@NotNull Value[] values) {
+            Value left = lhs.get(values);
+            Value right = rhs.get(values);
+            if (left.type == VarSnapshot.STRING || right.type == VarSnapshot.STRING) {
+                // strings can only be checked for equality
+                switch (operator) {
+                    case "==":
+                        return left.string.equals(right.string);
+                    case "!=":
+                        return !left.string.equals(right.string);
+                    default:
+                        throw new IllegalArgumentException("Can't compare " + left + " " + operator + " " + right);
+                }
+            }
+            int compared = left.compareTo(right);
+            switch (operator) {
+                case "==":
+                    return compared == 0;
+                case "!=":
+                    return compared != 0;
+                case ">=":
+                    return compared >= 0;
+                case "<=":
+                    return compared <= 0;
+                case ">":
+                    return compared > 0;
+                case "<":
+                    return compared < 0;
+                default:
+                    throw new IllegalArgumentException("Invalid Expression!");
+            }
+        }
+    }
+}
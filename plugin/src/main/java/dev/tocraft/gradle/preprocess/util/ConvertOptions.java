@@ -0,0 +1,61 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+
+/**
+ * Options for {@link PreProcessor#convertTree}
+ */
+public final class ConvertOptions {
+    ReMapper reMapper = new ReMapper(new HashMap<>());
+    int queueCapacity = 64;
+    int ioThreads = 4;
+    int cpuThreads = Runtime.getRuntime().availableProcessors();
+    boolean virtualThreads = false;
+
+    /**
+     * @param reMapper ReMapper to be used to replace matches in the files
+     * @return these options
+     */
+    public ConvertOptions setReMapper(@NotNull ReMapper reMapper) {
+        this.reMapper = reMapper;
+        return this;
+    }
+
+    /**
+     * @param queueCapacity the amount of files that may wait between two stages, which limits the memory in use
+     * @return these options
+     */
+    public ConvertOptions setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+        return this;
+    }
+
+    /**
+     * @param ioThreads the amount of threads reading and the amount of threads writing files
+     * @return these options
+     */
+    public ConvertOptions setIoThreads(int ioThreads) {
+        this.ioThreads = Math.max(1, ioThreads);
+        return this;
+    }
+
+    /**
+     * @param cpuThreads the amount of threads preprocessing files
+     * @return these options
+     */
+    public ConvertOptions setCpuThreads(int cpuThreads) {
+        this.cpuThreads = Math.max(1, cpuThreads);
+        return this;
+    }
+
+    /**
+     * @param virtualThreads if the reading and writing threads shall be virtual threads. Ignored before Java 21
+     * @return these options
+     */
+    public ConvertOptions setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+}
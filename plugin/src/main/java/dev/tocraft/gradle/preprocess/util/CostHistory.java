@@ -0,0 +1,158 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Remembers how long preprocessing each file took in the previous runs, so the slowest files can be started first
+ * and a large file started last doesn't keep all other threads waiting. Files without history are estimated by their size.
+ */
+public final class CostHistory {
+    private static final int VERSION = 1;
+
+    private final Map<String, Cost> costs = new ConcurrentHashMap<>();
+
+    private CostHistory() {
+    }
+
+    /**
+     * @return an empty history, where every file is estimated by its size
+     */
+    public static @NotNull CostHistory empty() {
+        return new CostHistory();
+    }
+
+    /**
+     * @param file the stored history
+     * @return the stored history or an empty one, if there is none or it can't be read
+     */
+    public static @NotNull CostHistory load(@NotNull Path file) {
+        CostHistory history = new CostHistory();
+        if (!Files.exists(file)) {
+            return history;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != VERSION) {
+                return history;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                history.costs.put(in.readUTF(), new Cost(in.readLong(), in.readLong()));
+            }
+        } catch (IOException e) {
+            // the history only changes the order, so it's simply recorded again
+            history.costs.clear();
+        }
+        return history;
+    }
+
+    /**
+     * @param file where the history shall be stored
+     */
+    public void save(@NotNull Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(VERSION);
+            Map<String, Cost> snapshot = new HashMap<>(costs);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Cost> entry : snapshot.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().nanos);
+                out.writeLong(entry.getValue().size);
+            }
+        }
+    }
+
+    /**
+     * @param file  the preprocessed file
+     * @param nanos how long preprocessing it took
+     */
+    public void record(@NotNull File file, long nanos) {
+        costs.put(key(file), new Cost(Math.max(1, nanos), file.length()));
+    }
+
+    /**
+     * Removes every file, which wasn't preprocessed this time
+     *
+     * @param files the files that still exist
+     */
+    public void retain(@NotNull Collection<File> files) {
+        Set<String> keys = new HashSet<>();
+        for (File file : files) {
+            keys.add(key(file));
+        }
+        costs.keySet().retainAll(keys);
+    }
+
+    /**
+     * Sorts the files longest first (LPT), so the threads finish at about the same time
+     *
+     * @param files the files that shall be preprocessed
+     * @return the files, ordered by their expected cost
+     */
+    public @NotNull List<File> sort(@NotNull Collection<File> files) {
+        return sort(files, file -> file);
+    }
+
+    /**
+     * Sorts the jobs longest first (LPT), so the threads finish at about the same time
+     *
+     * @param jobs the jobs that shall be run
+     * @param fileOf the file every job preprocesses
+     * @return the jobs, ordered by the expected cost of their files
+     */
+    public <T> @NotNull List<T> sort(@NotNull Collection<T> jobs, @NotNull Function<T, File> fileOf) {
+        // files without history are estimated with the average speed of the known files
+        long knownNanos = 0;
+        long knownBytes = 0;
+        for (Cost cost : costs.values()) {
+            knownNanos += cost.nanos;
+            knownBytes += cost.size;
+        }
+        double nanosPerByte = knownNanos > 0 && knownBytes > 0 ? (double) knownNanos / knownBytes : 1;
+
+        Map<File, Double> estimates = new HashMap<>();
+        for (T job : jobs) {
+            File file = fileOf.apply(job);
+            if (estimates.containsKey(file)) {
+                continue;
+            }
+            long size = file.length();
+            Cost cost = costs.get(key(file));
+            double estimate;
+            if (cost == null) {
+                estimate = size * nanosPerByte;
+            } else if (cost.size > 0 && cost.size != size) {
+                // the file changed, so its old cost is scaled to its new size
+                estimate = (double) cost.nanos * size / cost.size;
+            } else {
+                estimate = cost.nanos;
+            }
+            estimates.put(file, estimate);
+        }
+
+        List<T> sorted = new ArrayList<>(jobs);
+        sorted.sort((a, b) -> Double.compare(estimates.get(fileOf.apply(b)), estimates.get(fileOf.apply(a))));
+        return sorted;
+    }
+
+    private static @NotNull String key(@NotNull File file) {
+        return file.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    private static final class Cost {
+        private final long nanos;
+        private final long size;
+
+        private Cost(long nanos, long size) {
+            this.nanos = nanos;
+            this.size = size;
+        }
+    }
+}
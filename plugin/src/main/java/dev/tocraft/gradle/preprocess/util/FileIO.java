@@ -0,0 +1,192 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads and writes files through the {@link BufferPool}, limited by the {@link IoThrottle}
+ */
+final class FileIO {
+    private static final ThreadLocal<CharsetDecoder> DECODER = ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT));
+    private static final ThreadLocal<CharsetEncoder> ENCODER = ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+    private FileIO() {
+    }
+
+    /**
+     * @param path the file to read
+     * @return a pooled buffer, flipped for reading, which must be released afterwards
+     */
+    static @NotNull ByteBuffer read(@NotNull Path path) throws IOException {
+        Semaphore permit = IoThrottle.acquire();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + path);
+            }
+            ByteBuffer buffer = BufferPool.acquireBytes((int) size);
+            try {
+                buffer.limit((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // read until the buffer is full
+                }
+                buffer.flip();
+                return buffer;
+            } catch (IOException e) {
+                BufferPool.release(buffer);
+                throw e;
+            }
+        } finally {
+            IoThrottle.release(permit);
+        }
+    }
+
+    /**
+     * Splits the bytes into lines like {@link Files#readAllLines(Path)}
+     *
+     * @param bytes UTF-8 encoded bytes, the position won't be changed
+     * @return the decoded lines
+     * @throws CharacterCodingException if the bytes aren't valid UTF-8, e.g. binary files
+     */
+    static @NotNull List<String> decodeLines(@NotNull ByteBuffer bytes) throws CharacterCodingException {
+        CharBuffer chars = BufferPool.acquireChars(bytes.remaining());
+        try {
+            CharsetDecoder decoder = DECODER.get().reset();
+            CoderResult result = decoder.decode(bytes.duplicate(), chars, true);
+            if (result.isError()) {
+                result.throwException();
+            }
+            result = decoder.flush(chars);
+            if (result.isError()) {
+                result.throwException();
+            }
+            chars.flip();
+
+            char[] array = chars.array();
+            int offset = chars.arrayOffset();
+            int end = offset + chars.limit();
+            List<String> lines = new ArrayList<>();
+            int start = offset;
+            for (int i = offset; i < end; i++) {
+                char c = array[i];
+                if (c == '\n' || c == '\r') {
+                    lines.add(new String(array, start, i - start));
+                    if (c == '\r' && i + 1 < end && array[i + 1] == '\n') {
+                        i++;
+                    }
+                    start = i + 1;
+                }
+            }
+            if (start < end) {
+                lines.add(new String(array, start, end - start));
+            }
+            return lines;
+        } finally {
+            BufferPool.release(chars);
+        }
+    }
+
+    /**
+     * The permit of the {@link IoThrottle} is only held while a full buffer is written, not while the lines are encoded
+     *
+     * @param path  the file to write, parent directories will be created
+     * @param lines the lines, each one will be terminated with '\n'
+     */
+    static void writeLines(@NotNull Path path, @NotNull List<String> lines) throws IOException {
+        writeLines(path, lines, null);
+    }
+
+    /**
+     * @param path   the file to write, parent directories will be created
+     * @param lines  the lines, each one will be terminated with '\n'
+     * @param digest updated with every written byte, can be null
+     */
+    static void writeLines(@NotNull Path path, @NotNull List<String> lines, @Nullable MessageDigest digest) throws IOException {
+        createParents(path);
+        ByteBuffer buffer = BufferPool.acquireBytes(BufferPool.WRITE_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CharsetEncoder encoder = ENCODER.get();
+            CharBuffer newLine = CharBuffer.wrap("\n");
+            for (String line : lines) {
+                encode(encoder, CharBuffer.wrap(line), buffer, channel, digest);
+                newLine.rewind();
+                encode(encoder, newLine, buffer, channel, digest);
+            }
+            flush(buffer, channel, digest);
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * @param path  the file to write, parent directories will be created
+     * @param bytes the bytes to write, the position won't be changed
+     */
+    static void write(@NotNull Path path, @NotNull ByteBuffer bytes) throws IOException {
+        createParents(path);
+        Semaphore permit = IoThrottle.acquire();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer duplicate = bytes.duplicate();
+            while (duplicate.hasRemaining()) {
+                channel.write(duplicate);
+            }
+        } finally {
+            IoThrottle.release(permit);
+        }
+    }
+
+    private static void encode(@NotNull CharsetEncoder encoder, @NotNull CharBuffer chars, @NotNull ByteBuffer buffer, @NotNull FileChannel channel, @Nullable MessageDigest digest) throws IOException {
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                flush(buffer, channel, digest);
+                buffer.clear();
+            } else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes the filled part of the buffer, while holding a permit of the {@link IoThrottle}
+     */
+    private static void flush(@NotNull ByteBuffer buffer, @NotNull FileChannel channel, @Nullable MessageDigest digest) throws IOException {
+        buffer.flip();
+        if (digest != null) {
+            digest.update(buffer.duplicate());
+        }
+        Semaphore permit = IoThrottle.acquire();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            IoThrottle.release(permit);
+        }
+    }
+
+    private static void createParents(@NotNull Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Minimal Java/Kotlin line tokenizer that reports identifiers and dotted names outside of comments and literals.
+ * One instance should be used per file, since block comments and text blocks span multiple lines.
+ */
+final class IdentifierScanner {
+    /**
+     * the Javadoc tags, which are followed by a reference to a class or member
+     */
+    private static final Set<String> DOC_TAGS = new HashSet<>(Arrays.asList("link", "linkplain", "value", "see", "throws", "exception"));
+
+    private boolean inBlockComment = false;
+    private boolean inDocComment = false;
+    private boolean inTextBlock = false;
+
+    /**
+     * Callback for every found identifier or dotted name like {@code java.util.List}
+     */
+    interface Visitor {
+        /**
+         * @param line  the scanned line
+         * @param start the index of the first char of the name
+         * @param end   the index after the last char of the name
+         */
+        void visit(@NotNull String line, int start, int end);
+    }
+
+    /**
+     * @return false, if the next line starts inside a block comment or text block
+     */
+    boolean isInCode() {
+        return !inBlockComment && !inTextBlock;
+    }
+
+    /**
+     * @param line    the line to scan
+     * @param from    the index to start scanning at
+     * @param visitor receives every identifier or dotted name in code
+     */
+    void scan(@NotNull String line, int from, @NotNull Visitor visitor) {
+        scan(line, from, visitor, null);
+    }
+
+    /**
+     * @param line       the line to scan
+     * @param from       the index to start scanning at
+     * @param visitor    receives every identifier or dotted name in code
+     * @param docVisitor receives the references of Javadoc tags like {@code {@link Foo#bar(Baz)}} or {@code @throws Foo}, can be null
+     */
+    void scan(@NotNull String line, int from, @NotNull Visitor visitor, @Nullable Visitor docVisitor) {
+        int length = line.length();
+        int i = from;
+        while (i < length) {
+            if (inBlockComment) {
+                int end = line.indexOf("*/", i);
+                if (inDocComment && docVisitor != null) {
+                    scanDocTags(line, i, end < 0 ? length : end, docVisitor);
+                }
+                if (end < 0) {
+                    return;
+                }
+                inBlockComment = false;
+                inDocComment = false;
+                i = end + 2;
+                continue;
+            }
+            if (inTextBlock) {
+                int end = line.indexOf("\"\"\"", i);
+                if (end < 0) {
+                    return;
+                }
+                inTextBlock = false;
+                i = end + 3;
+                continue;
+            }
+
+            char c = line.charAt(i);
+            if (c == '/' && i + 1 < length) {
+                char next = line.charAt(i + 1);
+                if (next == '/') {
+                    return;
+                } else if (next == '*') {
+                    inBlockComment = true;
+                    inDocComment = line.startsWith("/**", i) && !line.startsWith("/**/", i);
+                    i += 2;
+                    continue;
+                }
+            }
+            if (c == '"') {
+                if (line.startsWith("\"\"\"", i)) {
+                    inTextBlock = true;
+                    i += 3;
+                } else {
+                    i = skipLiteral(line, i, '"');
+                }
+            } else if (c == '\'') {
+                i = skipLiteral(line, i, '\'');
+            } else if (Character.isDigit(c)) {
+                // skip numbers completely, so suffixes like '5f' aren't treated as identifiers
+                i++;
+                while (i < length && (Character.isLetterOrDigit(line.charAt(i)) || line.charAt(i) == '_' || line.charAt(i) == '.')) {
+                    i++;
+                }
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int start = i;
+                i = skipIdentifier(line, i);
+                // continue with dotted names
+                while (i + 1 < length && line.charAt(i) == '.' && Character.isJavaIdentifierStart(line.charAt(i + 1))) {
+                    i = skipIdentifier(line, i + 1);
+                }
+                visitor.visit(line, start, i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * @param line the line to check
+     * @return true, if the line contains anything except whitespace and comments
+     */
+    boolean hasCode(@NotNull String line) {
+        int length = line.length();
+        int i = 0;
+        while (i < length) {
+            if (inBlockComment) {
+                int end = line.indexOf("*/", i);
+                if (end < 0) {
+                    return false;
+                }
+                inBlockComment = false;
+                i = end + 2;
+                continue;
+            }
+            if (inTextBlock) {
+                return true;
+            }
+            char c = line.charAt(i);
+            if (c == '/' && i + 1 < length) {
+                char next = line.charAt(i + 1);
+                if (next == '/') {
+                    return false;
+                } else if (next == '*') {
+                    inBlockComment = true;
+                    i += 2;
+                    continue;
+                }
+            }
+            if (!Character.isWhitespace(c)) {
+                return true;
+            }
+            i++;
+        }
+        return false;
+    }
+
+    /**
+     * Reports the reference after every tag, which names a class. Parameter types of method references are included.
+     */
+    private static void scanDocTags(@NotNull String line, int from, int to, @NotNull Visitor visitor) {
+        int i = line.indexOf('@', from);
+        while (i >= 0 && i < to) {
+            char before = i > from ? line.charAt(i - 1) : ' ';
+            int tagEnd = i + 1;
+            while (tagEnd < to && Character.isLetter(line.charAt(tagEnd))) {
+                tagEnd++;
+            }
+            if ((before == '{' || before == '*' || Character.isWhitespace(before)) && DOC_TAGS.contains(line.substring(i + 1, tagEnd))) {
+                int start = tagEnd;
+                while (start < to && Character.isWhitespace(line.charAt(start))) {
+                    start++;
+                }
+                int end = start;
+                int depth = 0;
+                while (end < to) {
+                    char c = line.charAt(end);
+                    if (c == '(') {
+                        depth++;
+                    } else if (c == ')') {
+                        depth--;
+                    } else if (depth <= 0 && (c == '}' || Character.isWhitespace(c))) {
+                        break;
+                    }
+                    end++;
+                }
+                if (end > start) {
+                    visitor.visit(line, start, end);
+                }
+                tagEnd = end;
+            }
+            i = line.indexOf('@', tagEnd);
+        }
+    }
+
+    private static int skipIdentifier(@NotNull String line, int i) {
+        i++;
+        while (i < line.length() && Character.isJavaIdentifierPart(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipLiteral(@NotNull String line, int i, char quote) {
+        i++;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return i;
+    }
+}
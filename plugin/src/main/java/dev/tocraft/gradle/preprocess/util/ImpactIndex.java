@@ -0,0 +1,298 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import dev.tocraft.gradle.preprocess.data.Keywords;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the if-statements of every file, so it can be computed which lines another var set would change,
+ * without reading the files again. The index is stored on the disk between builds, files are only parsed again
+ * if their size or last modification time changed. Like in the {@link ParsedFileCache}, files modified right before they
+ * were indexed are verified by their content hash.
+ */
+public final class ImpactIndex {
+    private static final int VERSION = 2;
+
+    /**
+     * concurrent, so the files can be read and parsed in parallel
+     */
+    private final Map<String, FileEntry> entries = new ConcurrentHashMap<>();
+
+    private ImpactIndex() {
+    }
+
+    /**
+     * @param file the stored index
+     * @return the stored index or an empty one, if there is none or it can't be read
+     */
+    public static @NotNull ImpactIndex load(@NotNull Path file) {
+        ImpactIndex index = new ImpactIndex();
+        if (!Files.exists(file)) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != VERSION) {
+                return index;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                FileEntry entry = FileEntry.read(in);
+                index.entries.put(entry.path, entry);
+            }
+        } catch (IOException e) {
+            // the index is only a cache, so it's simply rebuilt
+            index.entries.clear();
+        }
+        return index;
+    }
+
+    /**
+     * @param file where the index shall be stored
+     */
+    public void save(@NotNull Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (FileEntry entry : entries.values()) {
+                entry.write(out);
+            }
+        }
+    }
+
+    /**
+     * Parses the file again, if it changed since it was indexed
+     *
+     * @param file     the file
+     * @param keywords the keywords of the file type
+     * @return the if-statements of the file or null, if it's no text file
+     */
+    public @Nullable FileEntry update(@NotNull Path file, @NotNull Keywords keywords) throws IOException {
+        String path = file.toAbsolutePath().normalize().toString();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            entries.remove(path);
+            throw e;
+        }
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        String keywordsKey = keywords.toString();
+
+        FileEntry entry = entries.get(path);
+        boolean same = entry != null && entry.size == size && entry.lastModified == lastModified && entry.keywords.equals(keywordsKey);
+        if (!same || entry.lastModified + ParsedFileCache.RACY_MILLIS >= entry.indexedAt) {
+            long indexedAt = System.currentTimeMillis();
+            ByteBuffer bytes = FileIO.read(file);
+            try {
+                long hash = ParsedFileCache.hash(bytes);
+                if (same && entry.hash == hash) {
+                    // the file didn't change, so it doesn't need to be verified again
+                    entry = entry.withIndexedAt(indexedAt);
+                } else {
+                    entry = FileEntry.of(path, size, lastModified, keywordsKey, hash, indexedAt, ParsedFileCache.parse(bytes, keywords));
+                }
+            } finally {
+                BufferPool.release(bytes);
+            }
+            entries.put(path, entry);
+        }
+        return entry.binary ? null : entry;
+    }
+
+    /**
+     * Removes every file from the index, which wasn't found anymore
+     *
+     * @param files the files that still exist
+     */
+    public void retain(@NotNull Collection<Path> files) {
+        Set<String> paths = new HashSet<>();
+        for (Path file : files) {
+            paths.add(file.toAbsolutePath().normalize().toString());
+        }
+        entries.keySet().retainAll(paths);
+    }
+
+    /**
+     * The directive lines of a file
+     */
+    public static final class FileEntry {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final String keywords;
+        /**
+         * the content hash, which verifies files modified right before they were indexed
+         */
+        private final long hash;
+        private final long indexedAt;
+        private final boolean binary;
+        private final int lineCount;
+        private final int[] lines;
+        private final byte[] kinds;
+        private final String[] conditions;
+
+        private FileEntry(String path, long size, long lastModified, String keywords, long hash, long indexedAt, boolean binary, int lineCount, int[] lines, byte[] kinds, String[] conditions) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.keywords = keywords;
+            this.hash = hash;
+            this.indexedAt = indexedAt;
+            this.binary = binary;
+            this.lineCount = lineCount;
+            this.lines = lines;
+            this.kinds = kinds;
+            this.conditions = conditions;
+        }
+
+        private static @NotNull FileEntry of(@NotNull String path, long size, long lastModified, @NotNull String keywords, long hash, long indexedAt, @Nullable ParsedSource source) {
+            if (source == null) {
+                return new FileEntry(path, size, lastModified, keywords, hash, indexedAt, true, 0, new int[0], new byte[0], new String[0]);
+            }
+            int count = 0;
+            for (int i = 0; i < source.size(); i++) {
+                if (source.kind(i) >= ParsedSource.IF) {
+                    count++;
+                }
+            }
+            int[] lines = new int[count];
+            byte[] kinds = new byte[count];
+            String[] conditions = new String[count];
+            int j = 0;
+            for (int i = 0; i < source.size(); i++) {
+                byte kind = source.kind(i);
+                if (kind >= ParsedSource.IF) {
+                    lines[j] = i;
+                    kinds[j] = kind;
+                    conditions[j] = kind == ParsedSource.IF || kind == ParsedSource.ELSEIF ? source.condition(i) : "";
+                    j++;
+                }
+            }
+            return new FileEntry(path, size, lastModified, keywords, hash, indexedAt, false, source.size(), lines, kinds, conditions);
+        }
+
+        private @NotNull FileEntry withIndexedAt(long indexedAt) {
+            return new FileEntry(path, size, lastModified, keywords, hash, indexedAt, binary, lineCount, lines, kinds, conditions);
+        }
+
+        private static @NotNull FileEntry read(@NotNull DataInputStream in) throws IOException {
+            String path = in.readUTF();
+            long size = in.readLong();
+            long lastModified = in.readLong();
+            String keywords = in.readUTF();
+            long hash = in.readLong();
+            long indexedAt = in.readLong();
+            boolean binary = in.readBoolean();
+            int lineCount = in.readInt();
+            int count = in.readInt();
+            int[] lines = new int[count];
+            byte[] kinds = new byte[count];
+            String[] conditions = new String[count];
+            for (int i = 0; i < count; i++) {
+                lines[i] = in.readInt();
+                kinds[i] = in.readByte();
+                conditions[i] = in.readUTF();
+            }
+            return new FileEntry(path, size, lastModified, keywords, hash, indexedAt, binary, lineCount, lines, kinds, conditions);
+        }
+
+        private void write(@NotNull DataOutputStream out) throws IOException {
+            out.writeUTF(path);
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeUTF(keywords);
+            out.writeLong(hash);
+            out.writeLong(indexedAt);
+            out.writeBoolean(binary);
+            out.writeInt(lineCount);
+            out.writeInt(lines.length);
+            for (int i = 0; i < lines.length; i++) {
+                out.writeInt(lines[i]);
+                out.writeByte(kinds[i]);
+                out.writeUTF(conditions[i]);
+            }
+        }
+
+        /**
+         * @return true if the file contains no if-statements, so no var set can change it
+         */
+        public boolean isEmpty() {
+            return lines.length == 0;
+        }
+
+        /**
+         * Lines between two directives are active or inactive together, so only the directives need to be evaluated
+         *
+         * @param current  the preprocessor with the current vars
+         * @param proposed the preprocessor with the proposed vars
+         * @param fileName the file name for error throwing
+         * @return the amount of lines, which are active with one var set, but inactive with the other one
+         * @throws ParseException if the if-statements are invalid
+         */
+        public int countChangedLines(@NotNull PreProcessor current, @NotNull PreProcessor proposed, @Nullable String fileName) {
+            boolean[] currentActive = evaluate(current, fileName);
+            boolean[] proposedActive = evaluate(proposed, fileName);
+            int changed = 0;
+            for (int i = 0; i < lines.length; i++) {
+                if (currentActive[i] != proposedActive[i]) {
+                    int end = i + 1 < lines.length ? lines[i + 1] : lineCount;
+                    changed += end - lines[i] - 1;
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * @return if the lines after each directive are active
+         */
+        private boolean @NotNull [] evaluate(@NotNull PreProcessor preProcessor, @Nullable String fileName) {
+            boolean[] active = new boolean[lines.length];
+            // each entry contains the current value and if a true branch was found
+            Deque<boolean[]> stack = new ArrayDeque<>();
+            for (int i = 0; i < lines.length; i++) {
+                int n = lines[i] + 1;
+                byte kind = kinds[i];
+                if (kind == ParsedSource.IF) {
+                    boolean result = preProcessor._evalCondition(conditions[i], n, fileName);
+                    stack.push(new boolean[]{result, result});
+                } else if (kind == ParsedSource.ELSEIF || kind == ParsedSource.ELSE) {
+                    if (stack.isEmpty()) {
+                        throw new ParseException(kind == ParsedSource.ELSE ? "Unexpected else" : "elseif without If-Statement!", n, fileName);
+                    }
+                    boolean[] entry = stack.peek();
+                    if (entry[1]) {
+                        entry[0] = false;
+                    } else {
+                        entry[0] = kind == ParsedSource.ELSE || preProcessor._evalCondition(conditions[i], n, fileName);
+                        entry[1] = entry[0];
+                    }
+                } else {
+                    if (stack.isEmpty()) {
+                        throw new ParseException("endif without If-Statement!", n, fileName);
+                    }
+                    stack.pop();
+                }
+                boolean value = true;
+                for (boolean[] entry : stack) {
+                    value &= entry[0];
+                }
+                active[i] = value;
+            }
+            if (!stack.isEmpty()) {
+                throw new ParseException("Missing endif!", lineCount, fileName);
+            }
+            return active;
+        }
+    }
+}
@@ -1,74 +1,147 @@
 package dev.tocraft.gradle.preprocess.util;
 
-import org.jetbrains.annotations.ApiStatus;
+import dev.tocraft.gradle.preprocess.data.Keywords;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.*;
 
 /**
- * Sometime in the future, the PreProcess will also auto-handle the imports
+ * Removes the imports of Java and Kotlin files, which aren't used anymore after the preprocessor removed the code using them
  */
-@SuppressWarnings("unused")
-@ApiStatus.Experimental
-public class ImportManager {
-    private static @NotNull List<String> organizeImports(@NotNull List<String> sourceLines) {
-        Set<String> imports = new TreeSet<>();
-        String packageLine = "";
-        List<String> codeLines = new ArrayList<>();
+public final class ImportManager {
+    /**
+     * Kotlin calls these functions without their name, e.g. for delegated properties or operators
+     */
+    private static final Set<String> KOTLIN_CONVENTIONS = new HashSet<>(Arrays.asList(
+            "getValue", "setValue", "provideDelegate", "invoke", "get", "set", "contains", "iterator", "next", "hasNext", "compareTo", "equals",
+            "plus", "minus", "times", "div", "rem", "rangeTo", "rangeUntil", "inc", "dec", "not", "unaryPlus", "unaryMinus",
+            "plusAssign", "minusAssign", "timesAssign", "divAssign", "remAssign"));
 
-        for (String line : sourceLines) {
-            if (line.trim().startsWith("import ")) {
-                imports.add(getImportClassName(line));
-            } else if (line.trim().startsWith("package ")) {
-                packageLine = line;
+    private ImportManager() {
+    }
+
+    /**
+     * @param fileName the name of the file
+     * @return if the imports of the file can be pruned
+     */
+    public static boolean isSupported(@Nullable String fileName) {
+        String extension = PreProcessor.getExtension(fileName);
+        return extension.equals("java") || extension.equals("kt");
+    }
+
+    /**
+     * Collects the names used by the code in a single pass and replaces every unused import with a blank line, so the line numbers stay the same.
+     * Wildcard imports are always kept. Lines commented out by the preprocessor don't use any import, Javadoc tags like {@code @see} do.
+     * In Kotlin files, every word counts as used, since string templates and comments can reference imports, too.
+     *
+     * @param lines    the preprocessed lines
+     * @param fileName the file name, to know if it's a Kotlin file
+     * @param keywords the keywords of the file
+     * @return the lines without unused imports or the same list, if every import is used
+     */
+    public static @NotNull List<String> removeUnusedImports(@NotNull List<String> lines, @Nullable String fileName, @NotNull Keywords keywords) {
+        boolean kotlin = PreProcessor.getExtension(fileName).equals("kt");
+        Set<String> used = new HashSet<>();
+        // the line index and the name of every import, which might be unused
+        List<Integer> importLines = new ArrayList<>();
+        List<String> importNames = new ArrayList<>();
+
+        IdentifierScanner scanner = new IdentifierScanner();
+        IdentifierScanner.Visitor visitor = (line, start, end) -> addWords(line, start, end, used);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            int indent = indentation(line);
+            if (line.startsWith(keywords.EVAL(), indent)) {
+                continue;
+            }
+            if (scanner.isInCode() && (line.startsWith("import ", indent) || line.startsWith("import\t", indent))) {
+                String name = importedName(line, indent + 7, kotlin);
+                if (name != null) {
+                    importLines.add(i);
+                    importNames.add(name);
+                }
+                continue;
+            }
+            if (kotlin) {
+                addWords(line, 0, line.length(), used);
             } else {
-                codeLines.add(line);
+                // imports referenced by the Javadoc are still needed by javadoc and doclint
+                scanner.scan(line, 0, visitor, visitor);
             }
         }
 
-        while (codeLines.get(0).trim().isEmpty()) {
-            codeLines.remove(0);
+        List<String> pruned = null;
+        for (int i = 0; i < importLines.size(); i++) {
+            String name = importNames.get(i);
+            if (!used.contains(name) && !(kotlin && (KOTLIN_CONVENTIONS.contains(name) || name.startsWith("component")))) {
+                if (pruned == null) {
+                    pruned = new ArrayList<>(lines);
+                }
+                pruned.set(importLines.get(i), "");
+            }
         }
+        return pruned != null ? pruned : lines;
+    }
 
-        // Reconstruct the modified lines
-        List<String> modifiedLines = new ArrayList<>();
-        modifiedLines.add(packageLine);
-        modifiedLines.add("");
-
-        System.out.println(codeLines);
-
-        modifiedLines.addAll(imports.stream().filter(imp -> {
-            String[] impArr = imp.split("\\.");
-            return anyStringInListContains(codeLines, impArr[impArr.length - 1]);
-        }).map(imp -> "import " + imp + ";").collect(Collectors.toList()));
-        modifiedLines.add("");
-
-        modifiedLines.addAll(codeLines);
+    /**
+     * @param from the index after the import keyword
+     * @return the name the import makes available or null, if it's a wildcard import or can't be read
+     */
+    private static @Nullable String importedName(@NotNull String line, int from, boolean kotlin) {
+        String imported = line.substring(from).trim();
+        int end = imported.indexOf(';');
+        if (end >= 0) {
+            if (!imported.substring(end + 1).trim().isEmpty()) {
+                // more than one statement in this line
+                return null;
+            }
+            imported = imported.substring(0, end).trim();
+        }
+        if (!kotlin && imported.startsWith("static ")) {
+            imported = imported.substring(7).trim();
+        }
+        if (kotlin) {
+            int alias = imported.lastIndexOf(" as ");
+            if (alias >= 0) {
+                return unquote(imported.substring(alias + 4).trim());
+            }
+        }
+        if (imported.endsWith("*") || imported.indexOf('/') >= 0) {
+            return null;
+        }
+        String name = unquote(imported.substring(imported.lastIndexOf('.') + 1).trim());
+        return name.isEmpty() ? null : name;
+    }
 
-        return modifiedLines;
+    private static @NotNull String unquote(@NotNull String name) {
+        return name.length() > 1 && name.startsWith("`") && name.endsWith("`") ? name.substring(1, name.length() - 1) : name;
     }
 
-    private static String getImportClassName(String importLine) {
-        Pattern pattern = Pattern.compile("import\\s+([\\w.]+);");
-        Matcher matcher = pattern.matcher(importLine);
-        if (matcher.matches()) {
-            return matcher.group(1);
+    /**
+     * Adds every identifier in the range, so every part of a dotted name like {@code Map.Entry} counts as used
+     */
+    private static void addWords(@NotNull String line, int start, int end, @NotNull Set<String> used) {
+        int i = start;
+        while (i < end) {
+            if (Character.isJavaIdentifierStart(line.charAt(i))) {
+                int wordStart = i;
+                i++;
+                while (i < end && Character.isJavaIdentifierPart(line.charAt(i))) {
+                    i++;
+                }
+                used.add(line.substring(wordStart, i));
+            } else {
+                i++;
+            }
         }
-        return "";
     }
 
-    private static boolean anyStringInListContains(@NotNull List<String> list, String str) {
-        for (String s : list) {
-            if (!s.trim().startsWith("//") && s.trim().contains(str)) {
-                return true;
-            }
+    private static int indentation(@NotNull String line) {
+        int i = 0;
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
         }
-        return false;
+        return i;
     }
 }
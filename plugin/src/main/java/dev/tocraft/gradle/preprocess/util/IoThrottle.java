@@ -0,0 +1,64 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits how many files are read or written at the same time, so many parallel tasks don't thrash the disk and the page cache
+ */
+public final class IoThrottle {
+    /**
+     * null if the amount isn't limited
+     */
+    private static volatile @Nullable Semaphore permits = null;
+    private static volatile int limit = 0;
+
+    private IoThrottle() {
+    }
+
+    /**
+     * Files which are currently read or written keep their permit, even if the limit changes
+     *
+     * @param limit the maximum amount of files read or written at the same time. 0 removes the limit
+     */
+    public static synchronized void configure(int limit) {
+        if (limit != IoThrottle.limit) {
+            IoThrottle.limit = Math.max(0, limit);
+            permits = IoThrottle.limit > 0 ? new Semaphore(IoThrottle.limit, true) : null;
+        }
+    }
+
+    /**
+     * @return the maximum amount of files read or written at the same time or 0, if it isn't limited
+     */
+    public static int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the acquired permit, which must be released afterwards
+     */
+    static @Nullable Semaphore acquire() throws InterruptedIOException {
+        Semaphore semaphore = permits;
+        if (semaphore != null) {
+            try {
+                semaphore.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the disk");
+            }
+        }
+        return semaphore;
+    }
+
+    /**
+     * @param semaphore the permit returned by {@link #acquire()}
+     */
+    static void release(@Nullable Semaphore semaphore) {
+        if (semaphore != null) {
+            semaphore.release();
+        }
+    }
+}
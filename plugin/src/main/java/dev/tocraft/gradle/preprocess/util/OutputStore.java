@@ -0,0 +1,176 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Stores every preprocessed file once by its content and links it into the target folders, so files which are the same
+ * for many targets or source sets are only written once. If the file system doesn't support hard links, the files are written directly.
+ */
+public final class OutputStore {
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path root;
+    private volatile boolean linksSupported = true;
+
+    /**
+     * @param root the folder of the store. It must be on the same file system as the target folders
+     */
+    public OutputStore(@NotNull Path root) {
+        this.root = root;
+    }
+
+    /**
+     * @return the folder of the store
+     */
+    public @NotNull Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @param path  the file to write, parent directories will be created
+     * @param lines the lines, each one will be terminated with '\n'
+     */
+    void writeLines(@NotNull Path path, @NotNull List<String> lines) throws IOException {
+        if (!linksSupported) {
+            FileIO.writeLines(path, lines);
+            return;
+        }
+
+        // the lines are streamed into a temporary file, the hash is only known afterwards
+        Files.createDirectories(root);
+        Path temp = Files.createTempFile(root, null, ".tmp");
+        try {
+            MessageDigest digest = DIGEST.get();
+            digest.reset();
+            FileIO.writeLines(temp, lines, digest);
+            Path stored = store(toHex(digest.digest()), temp);
+            if (!link(path, stored)) {
+                FileIO.writeLines(path, lines);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @param path  the file to write, parent directories will be created
+     * @param bytes the bytes to write, the position won't be changed
+     */
+    void write(@NotNull Path path, @NotNull ByteBuffer bytes) throws IOException {
+        if (!linksSupported) {
+            FileIO.write(path, bytes);
+            return;
+        }
+
+        MessageDigest digest = DIGEST.get();
+        digest.reset();
+        digest.update(bytes.duplicate());
+        String hash = toHex(digest.digest());
+        Path stored = root.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+        if (!Files.exists(stored)) {
+            Files.createDirectories(stored.getParent());
+            Path temp = Files.createTempFile(stored.getParent(), hash.substring(2), ".tmp");
+            try {
+                FileIO.write(temp, bytes);
+                store(hash, temp);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        if (!link(path, stored)) {
+            FileIO.write(path, bytes);
+        }
+    }
+
+    /**
+     * Moves the written file into the store, unless the content is already stored
+     *
+     * @param hash the hash of the content
+     * @param temp the written file, which must be on the same file system
+     * @return the stored file
+     */
+    private @NotNull Path store(@NotNull String hash, @NotNull Path temp) throws IOException {
+        Path stored = root.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+        if (!Files.exists(stored)) {
+            Files.createDirectories(stored.getParent());
+            // other threads may store the same content at the same time, so it's moved into place at once
+            try {
+                Files.move(temp, stored, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException ignored) {
+                // another thread was faster
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * @param path   the file, which shall have the content of the stored file
+     * @param stored the file in the store
+     * @return false if the file system doesn't support hard links, so the file must be written directly
+     */
+    private boolean link(@NotNull Path path, @NotNull Path stored) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        // never write into an existing file, since it might be a link to the store
+        Files.deleteIfExists(path);
+        try {
+            Files.createLink(path, stored);
+            return true;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            linksSupported = false;
+            return false;
+        }
+    }
+
+    /**
+     * Deletes every stored file, which isn't linked by any target folder anymore.
+     * Nothing is deleted if the file system doesn't report the amount of links.
+     *
+     * @param root the folder of the store
+     */
+    public static void prune(@NotNull Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) walk.filter(Files::isRegularFile)::iterator) {
+                Object links;
+                try {
+                    links = Files.getAttribute(file, "unix:nlink");
+                } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                    return;
+                }
+                if (links instanceof Integer && (Integer) links <= 1) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static @NotNull String toHex(byte[] hash) {
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
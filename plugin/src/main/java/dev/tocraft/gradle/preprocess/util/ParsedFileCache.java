@@ -0,0 +1,208 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import dev.tocraft.gradle.preprocess.data.Keywords;
+import dev.tocraft.gradle.preprocess.data.PreprocessExtension;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps parsed files in memory as long as the Gradle daemon lives, so unchanged files don't need to be read and parsed again.
+ * Files are identified by their path, size and last modification time. If a file was modified right before it was cached,
+ * the time stamp may not be precise enough, so its content hash is compared, too.
+ */
+public final class ParsedFileCache {
+    /**
+     * files modified less than this before they were cached need to be verified by their content hash
+     */
+    static final long RACY_MILLIS = 2000;
+
+    private static final Map<Path, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private static long usedBytes = 0;
+    /**
+     * @see PreprocessExtension#cacheMemoryLimit
+     */
+    private static volatile long memoryLimit = 128L << 20;
+
+    private ParsedFileCache() {
+    }
+
+    /**
+     * @param memoryLimit the estimated amount of bytes all cached files may use. 0 disables the cache
+     */
+    public static synchronized void configure(long memoryLimit) {
+        ParsedFileCache.memoryLimit = memoryLimit;
+        evict();
+    }
+
+    /**
+     * @return the estimated amount of bytes all cached files may use
+     */
+    public static long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Removes every cached file
+     */
+    public static synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * @param path     the file to read
+     * @param keywords the keywords of the file type
+     * @return the parsed file or null, if it's no text file
+     */
+    public static @Nullable ParsedSource load(@NotNull Path path, @NotNull Keywords keywords) throws IOException {
+        if (memoryLimit <= 0) {
+            return read(path, keywords, null);
+        }
+        path = path.toAbsolutePath().normalize();
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            remove(path);
+            throw e;
+        }
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        Entry entry;
+        synchronized (ParsedFileCache.class) {
+            entry = entries.get(path);
+        }
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            ParsedSource source = entry.source.get();
+            if (source != null || entry.binary) {
+                if (entry.lastModified + RACY_MILLIS < entry.cachedAt) {
+                    return reuse(source, keywords);
+                }
+                // the file might have changed without changing its time stamp
+                long[] hash = new long[1];
+                ParsedSource fresh = read(path, keywords, hash);
+                if (hash[0] == entry.hash) {
+                    if (entry.binary || fresh == null) {
+                        return fresh;
+                    }
+                    put(path, new Entry(size, lastModified, hash[0], source));
+                    return reuse(source, keywords);
+                }
+                put(path, new Entry(size, lastModified, hash[0], fresh));
+                return fresh;
+            }
+        }
+
+        long[] hash = new long[1];
+        ParsedSource source = read(path, keywords, hash);
+        put(path, new Entry(size, lastModified, hash[0], source));
+        return source;
+    }
+
+    private static @Nullable ParsedSource reuse(@Nullable ParsedSource source, @NotNull Keywords keywords) {
+        if (source == null || source.getKeywords().equals(keywords)) {
+            return source;
+        }
+        // the keywords for this file type changed, but the lines are still valid
+        return ParsedSource.parse(source.getLines(), keywords);
+    }
+
+    private static @Nullable ParsedSource read(@NotNull Path path, @NotNull Keywords keywords, @Nullable long[] hash) throws IOException {
+        ByteBuffer bytes = FileIO.read(path);
+        try {
+            if (hash != null) {
+                hash[0] = hash(bytes);
+            }
+            return parse(bytes, keywords);
+        } finally {
+            BufferPool.release(bytes);
+        }
+    }
+
+    /**
+     * @param bytes the content of a file, the position won't be changed
+     * @return the content hash, which verifies files modified right before they were cached
+     */
+    static long hash(@NotNull ByteBuffer bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes.duplicate());
+        return crc.getValue();
+    }
+
+    /**
+     * @param bytes    the content of a file
+     * @param keywords the keywords of the file type
+     * @return the parsed file or null, if it's no text file
+     */
+    static @Nullable ParsedSource parse(@NotNull ByteBuffer bytes, @NotNull Keywords keywords) {
+        List<String> lines;
+        try {
+            lines = FileIO.decodeLines(bytes);
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+        return ParsedSource.parse(lines, keywords);
+    }
+
+    private static synchronized void put(@NotNull Path path, @NotNull Entry entry) {
+        Entry old = entries.put(path, entry);
+        if (old != null) {
+            usedBytes -= old.estimatedSize;
+        }
+        usedBytes += entry.estimatedSize;
+        evict();
+    }
+
+    private static synchronized void remove(@NotNull Path path) {
+        Entry old = entries.remove(path);
+        if (old != null) {
+            usedBytes -= old.estimatedSize;
+        }
+    }
+
+    private static synchronized void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (usedBytes > memoryLimit && iterator.hasNext()) {
+            usedBytes -= iterator.next().estimatedSize;
+            iterator.remove();
+        }
+    }
+
+    private static final class Entry {
+        private final long size;
+        private final long lastModified;
+        private final long hash;
+        private final long cachedAt = System.currentTimeMillis();
+        private final boolean binary;
+        private final long estimatedSize;
+        /**
+         * the garbage collector may still free the parsed file, if the memory is needed elsewhere
+         */
+        private final SoftReference<ParsedSource> source;
+
+        private Entry(long size, long lastModified, long hash, @Nullable ParsedSource source) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.binary = source == null;
+            this.estimatedSize = source != null ? source.estimateSize() : 64;
+            this.source = new SoftReference<>(source);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import dev.tocraft.gradle.preprocess.data.Keywords;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * The lines of a file together with its directive structure, so a file only needs to be scanned once for its keywords
+ */
+public final class ParsedSource {
+    static final byte CODE = 0;
+    static final byte BLANK = 1;
+    static final byte EVAL = 2;
+    static final byte IF = 3;
+    static final byte ELSEIF = 4;
+    static final byte ELSE = 5;
+    static final byte ENDIF = 6;
+
+    private final List<String> lines;
+    private final Keywords keywords;
+    private final byte[] kinds;
+    private final int[] indentations;
+
+    private ParsedSource(List<String> lines, Keywords keywords, byte[] kinds, int[] indentations) {
+        this.lines = lines;
+        this.keywords = keywords;
+        this.kinds = kinds;
+        this.indentations = indentations;
+    }
+
+    /**
+     * @param lines    the file, already read as lines
+     * @param keywords the keywords of the file type
+     * @return the parsed file
+     */
+    public static @NotNull ParsedSource parse(@NotNull List<String> lines, @NotNull Keywords keywords) {
+        byte[] kinds = new byte[lines.size()];
+        int[] indentations = new int[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            String trimmed = line.trim();
+            indentations[i] = line.length() - trimmed.length();
+            if (trimmed.startsWith(keywords.IF())) {
+                kinds[i] = IF;
+            } else if (trimmed.startsWith(keywords.ELSEIF())) {
+                kinds[i] = ELSEIF;
+            } else if (trimmed.startsWith(keywords.ELSE())) {
+                kinds[i] = ELSE;
+            } else if (trimmed.startsWith(keywords.ENDIF())) {
+                kinds[i] = ENDIF;
+            } else if (trimmed.isEmpty()) {
+                kinds[i] = BLANK;
+            } else if (trimmed.startsWith(keywords.EVAL())) {
+                kinds[i] = EVAL;
+            } else {
+                kinds[i] = CODE;
+            }
+        }
+        return new ParsedSource(lines, keywords, kinds, indentations);
+    }
+
+    /**
+     * @return the lines of the file
+     */
+    public @NotNull List<String> getLines() {
+        return lines;
+    }
+
+    /**
+     * @return the keywords the file was parsed with
+     */
+    public @NotNull Keywords getKeywords() {
+        return keywords;
+    }
+
+    /**
+     * @return the amount of lines
+     */
+    public int size() {
+        return kinds.length;
+    }
+
+    /**
+     * @return true if the file contains any directive of the keywords
+     */
+    public boolean hasDirectives() {
+        for (byte kind : kinds) {
+            if (kind >= EVAL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    byte kind(int line) {
+        return kinds[line];
+    }
+
+    int indentation(int line) {
+        return indentations[line];
+    }
+
+    /**
+     * @return the condition of an if or elseif line
+     */
+    @NotNull String condition(int line) {
+        String trimmed = lines.get(line).trim();
+        return trimmed.substring(kinds[line] == IF ? keywords.IF().length() : keywords.ELSEIF().length());
+    }
+
+    /**
+     * @return an estimation of the memory used by this file
+     */
+    long estimateSize() {
+        long size = 64 + 5L * kinds.length;
+        for (String line : lines) {
+            size += 40 + 2L * line.length();
+        }
+        return size;
+    }
+}
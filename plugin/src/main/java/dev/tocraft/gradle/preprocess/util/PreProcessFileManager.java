@@ -0,0 +1,63 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands out preprocessed java sources to the compiler, without writing them to the disk first
+ */
+public class PreProcessFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    private final PreProcessor preProcessor;
+    private final ReMapper reMapper;
+    private final Charset charset;
+    @Nullable
+    private final File debugDir;
+
+    /**
+     * @param fileManager  the file manager of the compiler
+     * @param preProcessor the preprocessor to be used
+     * @param reMapper     the ReMapper to be used
+     * @param charset      the encoding of the sources
+     * @param debugDir     the folder the preprocessed sources shall also be written to, can be null
+     */
+    public PreProcessFileManager(@NotNull StandardJavaFileManager fileManager, @NotNull PreProcessor preProcessor, @NotNull ReMapper reMapper, @NotNull Charset charset, @Nullable File debugDir) {
+        super(fileManager);
+        this.preProcessor = preProcessor;
+        this.reMapper = reMapper;
+        this.charset = charset;
+        this.debugDir = debugDir;
+    }
+
+    /**
+     * @param srcFolder the source folder the files lie in
+     * @param files     the java sources in the source folder
+     * @return the compilation units for the compiler
+     */
+    public @NotNull List<JavaFileObject> getPreProcessedSources(@NotNull File srcFolder, @NotNull Iterable<File> files) {
+        Path basePath = srcFolder.toPath();
+        List<JavaFileObject> sources = new ArrayList<>();
+        for (File file : files) {
+            File debugFile = debugDir != null ? debugDir.toPath().resolve(basePath.relativize(file.toPath())).toFile() : null;
+            sources.add(new PreProcessedJavaFileObject(preProcessor, reMapper, file, charset, debugFile));
+        }
+        return sources;
+    }
+
+    @Override
+    public boolean isSameFile(FileObject a, FileObject b) {
+        if (a instanceof PreProcessedJavaFileObject || b instanceof PreProcessedJavaFileObject) {
+            return a.toUri().equals(b.toUri());
+        }
+        return super.isSameFile(a, b);
+    }
+}
@@ -0,0 +1,104 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Preprocesses and remaps text while it's copied, e.g. by Gradle's {@code CopySpec#filter}.
+ * The whole file is converted when it's read for the first time, since an if-statement may span the entire file.
+ */
+public class PreProcessReader extends FilterReader {
+    private PreProcessor preProcessor;
+    private ReMapper reMapper;
+    private String fileName = "";
+    private List<String> lines = null;
+    private Reader converted = null;
+
+    /**
+     * @param in the original text
+     */
+    public PreProcessReader(@NotNull Reader in) {
+        super(in);
+    }
+
+    /**
+     * @param preProcessor the preprocessor to be used
+     */
+    public void setPreProcessor(@NotNull PreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    /**
+     * @param reMapper the ReMapper to be used
+     */
+    public void setReMapper(@NotNull ReMapper reMapper) {
+        this.reMapper = reMapper;
+    }
+
+    /**
+     * @param fileName the name of the file, used for the keywords, the remap table and error messages
+     */
+    public void setFileName(@NotNull String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * @param lines the already preprocessed lines, which replace the original text. The preprocessor isn't needed then
+     */
+    public void setLines(@NotNull List<String> lines) {
+        this.lines = lines;
+    }
+
+    private @NotNull Reader converted() throws IOException {
+        if (converted == null) {
+            List<String> lines = this.lines;
+            if (lines == null) {
+                lines = new ArrayList<>();
+                BufferedReader reader = new BufferedReader(in);
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    lines.add(line);
+                }
+                lines = reMapper != null ? preProcessor.convertSource(lines, fileName, reMapper) : preProcessor.convertSource(lines, fileName);
+            }
+
+            int length = 0;
+            for (String line : lines) {
+                length += line.length() + 1;
+            }
+            StringBuilder builder = new StringBuilder(length);
+            for (String line : lines) {
+                builder.append(line).append('\n');
+            }
+            converted = new StringReader(builder.toString());
+        }
+        return converted;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return converted().read();
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        return converted().read(cbuf, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        return converted().skip(n);
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return converted().ready();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
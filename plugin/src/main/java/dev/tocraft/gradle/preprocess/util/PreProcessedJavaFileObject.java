@@ -0,0 +1,82 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.tools.SimpleJavaFileObject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * A java source, which is preprocessed when the compiler reads it
+ */
+public class PreProcessedJavaFileObject extends SimpleJavaFileObject {
+    private final PreProcessor preProcessor;
+    private final ReMapper reMapper;
+    private final File file;
+    private final Charset charset;
+    @Nullable
+    private final File debugFile;
+
+    /**
+     * @param preProcessor the preprocessor to be used
+     * @param reMapper     the ReMapper to be used
+     * @param file         the original source file
+     * @param charset      the encoding of the source file
+     * @param debugFile    where the preprocessed source shall be written to, can be null
+     */
+    public PreProcessedJavaFileObject(@NotNull PreProcessor preProcessor, @NotNull ReMapper reMapper, @NotNull File file, @NotNull Charset charset, @Nullable File debugFile) {
+        super(file.toURI(), Kind.SOURCE);
+        this.preProcessor = preProcessor;
+        this.reMapper = reMapper;
+        this.file = file;
+        this.charset = charset;
+        this.debugFile = debugFile;
+    }
+
+    /**
+     * @return the original source file
+     */
+    public @NotNull File getFile() {
+        return file;
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+        boolean utf8 = charset.equals(StandardCharsets.UTF_8);
+        // the cache only knows UTF-8, other encodings are decoded like javac would do it
+        List<String> lines = utf8 ? preProcessor.convertFile(reMapper, file) : preProcessor.convertSource(Files.readAllLines(file.toPath(), charset), file.getName(), reMapper);
+        if (preProcessor.isOmitted(lines, file.getName())) {
+            // the compiler can't leave out a listed source, but doesn't need to read the commented out code
+            return "";
+        }
+        if (debugFile != null) {
+            if (utf8) {
+                FileIO.writeLines(debugFile.toPath(), lines);
+            } else {
+                //noinspection ResultOfMethodCallIgnored
+                debugFile.getParentFile().mkdirs();
+                Files.write(debugFile.toPath(), lines, charset);
+            }
+        }
+
+        int length = 0;
+        for (String line : lines) {
+            length += line.length() + 1;
+        }
+        StringBuilder builder = new StringBuilder(length);
+        for (String line : lines) {
+            builder.append(line).append('\n');
+        }
+        return builder;
+    }
+
+    @Override
+    public long getLastModified() {
+        return file.lastModified();
+    }
+}
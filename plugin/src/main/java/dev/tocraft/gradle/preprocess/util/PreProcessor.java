@@ -6,12 +6,17 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * The actual preprocessing is happening here
@@ -21,11 +26,35 @@ public class PreProcessor {
     /**
      * @see PreprocessExtension#vars
      */
-    private final Map<String, Object> vars;
+    private final VarSnapshot vars;
+    /**
+     * the compiled conditions of all if-statements, since the same conditions are used in many files
+     */
+    private final Map<String, Condition> conditions = new ConcurrentHashMap<>();
+    /**
+     * the byte scanners per file extension
+     */
+    private final Map<String, Scanner> scanners = new ConcurrentHashMap<>();
     /**
      * @see PreprocessExtension#keywords
      */
     private final Map<String, Keywords> keywordsMap;
+    /**
+     * @see PreprocessExtension#parallelThreshold
+     */
+    private int parallelThreshold = 0;
+    /**
+     * @see PreprocessExtension#pruneImports
+     */
+    private boolean pruneImports = false;
+    /**
+     * @see PreprocessExtension#omitInactiveFiles
+     */
+    private boolean omitInactiveFiles = false;
+    /**
+     * @see PreprocessExtension#outputStore
+     */
+    private @Nullable OutputStore outputStore = null;
 
     /**
      * @param vars the vars that shall be used for the custom if-statements
@@ -48,21 +77,44 @@ public class PreProcessor {
 
     public PreProcessor(boolean removeComments, Map<String, Object> vars, Map<String, Keywords> keywordsMap) {
         this.removeComments = removeComments;
-        this.vars = vars;
+        this.vars = VarSnapshot.of(vars);
         this.keywordsMap = keywordsMap;
     }
 
-    private static final Pattern EXPR_PATTERN = Pattern.compile("(.+)(==|!=|<=|>=|<|>)(.+)");
-    private static final String OR_PATTERN = Pattern.quote("||");
-    private static final String AND_PATTERN = Pattern.quote("&&");
+    /**
+     * @param parallelThreshold the amount of lines a file needs, so it's split into chunks that are preprocessed in parallel. 0 disables this
+     * @return this PreProcessor
+     */
+    public PreProcessor setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+        return this;
+    }
 
-    private String getVarValue(@Nullable String key) {
-        if (key != null) {
-            Object value = vars.get(key);
-            return value != null ? value.toString() : key;
-        } else {
-            return null;
-        }
+    /**
+     * @param pruneImports if imports of Java and Kotlin files, which aren't used anymore after preprocessing, shall be replaced with blank lines
+     * @return this PreProcessor
+     */
+    public PreProcessor setPruneImports(boolean pruneImports) {
+        this.pruneImports = pruneImports;
+        return this;
+    }
+
+    /**
+     * @param omitInactiveFiles if Java and Kotlin files, whose code is completely commented out by the preprocessor, shall not be written
+     * @return this PreProcessor
+     */
+    public PreProcessor setOmitInactiveFiles(boolean omitInactiveFiles) {
+        this.omitInactiveFiles = omitInactiveFiles;
+        return this;
+    }
+
+    /**
+     * @param outputStore the store the written files are linked from or null, if they shall be written directly
+     * @return this PreProcessor
+     */
+    public PreProcessor setOutputStore(@Nullable OutputStore outputStore) {
+        this.outputStore = outputStore;
+        return this;
     }
 
     /**
@@ -74,76 +126,28 @@ public class PreProcessor {
     }
 
     /**
+     * The condition is compiled the first time it's used. Numbers, booleans and versions (e.g. 1.20.1) can be compared,
+     * strings only with == and !=. A var on its own is true unless it's 0 or false, unknown vars are always false.
+     *
      * @param condition  will be read and evaluated
      * @param lineNumber required for error throwing
      * @param fileName   required for error throwing
      * @return the value of the evaluated condition
      */
     public boolean evalExpression(@NotNull String condition, int lineNumber, @Nullable String fileName) {
-        String[] parts = condition.split(OR_PATTERN);
-        if (parts.length > 1) {
-            return Arrays.stream(parts).anyMatch(it -> evalExpression(it.trim(), lineNumber, fileName));
-        }
-        parts = condition.split(AND_PATTERN);
-        if (parts.length > 1) {
-            return Arrays.stream(parts).allMatch(it -> evalExpression(it.trim(), lineNumber, fileName));
-        }
-
-        Matcher matcher = EXPR_PATTERN.matcher(condition);
-        if (matcher.matches()) {
-            try {
-                int lhs = Integer.parseInt(getVarValue(matcher.group(1).trim()));
-                int rhs = Integer.parseInt(getVarValue(matcher.group(3).trim()));
-                boolean bool;
-                switch (matcher.group(2)) {
-                    case "==": {
-                        bool = lhs == rhs;
-                        break;
-                    }
-                    case "!=": {
-                        bool = lhs != rhs;
-                        break;
-                    }
-                    case ">=": {
-                        bool = lhs >= rhs;
-                        break;
-                    }
-                    case "<=": {
-                        bool = lhs <= rhs;
-                        break;
-                    }
-                    case ">": {
-                        bool = lhs > rhs;
-                        break;
-                    }
-                    case "<": {
-                        bool = lhs < rhs;
-                        break;
-                    }
-                    default: {
-                        throw new ParseException("Invalid Expression!", lineNumber, fileName);
-                    }
-                }
-                return bool;
-            } catch (NumberFormatException e) {
-                throw new ParseException(e.getMessage(), lineNumber, fileName);
-            }
-        }
-
-        String result = getVarValue(condition);
-
-        if (result != null && !result.equals(condition)) {
-            try {
-                return Integer.parseInt(result) != 0;
-            } catch (NumberFormatException ignored) {
+        try {
+            Condition compiled = conditions.get(condition);
+            if (compiled == null) {
+                compiled = Condition.compile(condition, vars);
+                conditions.put(condition, compiled);
             }
-            return true;
-        } else {
-            return false;
+            return compiled.test(vars.values);
+        } catch (IllegalArgumentException e) {
+            throw new ParseException(e.getMessage(), lineNumber, fileName);
         }
     }
 
-    private boolean _evalCondition(@NotNull String condition, int lineNumber, String fileName) {
+    boolean _evalCondition(@NotNull String condition, int lineNumber, String fileName) {
         if (!condition.startsWith(" ")) {
             throw new ParseException("Expected space before condition!", lineNumber, fileName);
         } else {
@@ -165,28 +169,136 @@ public class PreProcessor {
      * @return the preprocessed lines
      */
     public List<String> convertSource(@NotNull List<String> lines, @Nullable String fileName) {
+        return convertSource(ParsedSource.parse(lines, getKeywords(fileName)), fileName, null);
+    }
+
+    /**
+     * @param lines    the file, already read as lines
+     * @param fileName the file name for error throwing and finding the keywords and remap table of the file type
+     * @param reMapper ReMapper to be used to replace matches in the file
+     * @return the preprocessed and remapped lines
+     */
+    public List<String> convertSource(@NotNull List<String> lines, @NotNull String fileName, @NotNull ReMapper reMapper) {
+        ReMapper fileReMapper = reMapper.forFile(fileName);
+        return convertSource(ParsedSource.parse(lines, getKeywords(fileName)), fileName, fileReMapper.isEmpty() ? null : fileReMapper);
+    }
+
+    /**
+     * Large files are split into chunks at top-level directive boundaries, which are preprocessed and remapped in parallel.
+     * The chunks are forked into the fork join pool of the current thread, e.g. the shared queue of the preprocess tasks, or into the common pool otherwise.
+     *
+     * @param source   the parsed file
+     * @param fileName the file name for error throwing
+     * @param reMapper the ReMapper to be applied on the preprocessed lines, can be null
+     * @return the preprocessed lines
+     */
+    private List<String> convertSource(@NotNull ParsedSource source, @Nullable String fileName, @Nullable ReMapper reMapper) {
+        Keywords keywords = source.getKeywords();
+
+        List<Integer> chunks = parallelThreshold > 0 && source.size() >= parallelThreshold ? splitChunks(source) : null;
+        if (chunks == null || chunks.size() < 3) {
+            List<String> mappedLines = convertRange(source, 0, source.size(), fileName);
+            return pruneImports(reMapper != null ? reMapper.convertSource(mappedLines, keywords) : mappedLines, fileName, keywords);
+        }
+
+        // the identifier mode keeps track of comments over multiple lines, so it can't be split
+        boolean remapChunks = reMapper != null && reMapper.isLineIndependent();
+        List<ForkJoinTask<List<String>>> tasks = new ArrayList<>();
+        for (int i = 0; i < chunks.size() - 1; i++) {
+            int from = chunks.get(i);
+            int to = chunks.get(i + 1);
+            tasks.add(ForkJoinTask.adapt(() -> {
+                List<String> mappedLines = convertRange(source, from, to, fileName);
+                return remapChunks ? reMapper.convertSource(mappedLines, keywords) : mappedLines;
+            }));
+        }
+
+        List<String> mappedLines = new ArrayList<>(source.size());
+        try {
+            for (ForkJoinTask<List<String>> task : tasks) {
+                task.fork();
+            }
+            // join in order, so the first error in the file is thrown
+            for (ForkJoinTask<List<String>> task : tasks) {
+                mappedLines.addAll(task.join());
+            }
+        } finally {
+            for (ForkJoinTask<List<String>> task : tasks) {
+                task.cancel(false);
+            }
+        }
+
+        return pruneImports(reMapper != null && !remapChunks ? reMapper.convertSource(mappedLines, keywords) : mappedLines, fileName, keywords);
+    }
+
+    private @NotNull List<String> pruneImports(@NotNull List<String> lines, @Nullable String fileName, @NotNull Keywords keywords) {
+        return pruneImports && ImportManager.isSupported(fileName) ? ImportManager.removeUnusedImports(lines, fileName, keywords) : lines;
+    }
+
+    /**
+     * Finds lines outside any if-statement where the file can be split
+     *
+     * @return the start index of every chunk and the end of the file or null if the if-statements aren't balanced
+     */
+    private @Nullable List<Integer> splitChunks(@NotNull ParsedSource source) {
+        ForkJoinPool pool = ForkJoinTask.getPool();
+        int parallelism = pool != null ? pool.getParallelism() : ForkJoinPool.getCommonPoolParallelism();
+        int chunkSize = Math.max(parallelThreshold / 4, source.size() / (parallelism * 4));
+        List<Integer> chunks = new ArrayList<>();
+        chunks.add(0);
+        int depth = 0;
+        for (int i = 0; i < source.size(); i++) {
+            if (depth == 0 && i - chunks.get(chunks.size() - 1) >= chunkSize) {
+                chunks.add(i);
+            }
+            byte kind = source.kind(i);
+            if (kind == ParsedSource.IF) {
+                depth++;
+            } else if (kind == ParsedSource.ENDIF) {
+                if (--depth < 0) {
+                    // let the sequential run throw the correct error
+                    return null;
+                }
+            }
+        }
+        if (depth != 0) {
+            return null;
+        }
+        chunks.add(source.size());
+        return chunks;
+    }
+
+    /**
+     * @param source   the parsed file
+     * @param from     the first line to be preprocessed, must be outside any if-statement
+     * @param to       the line after the last one to be preprocessed
+     * @param fileName the file name for error throwing
+     * @return the preprocessed lines
+     */
+    private @NotNull List<String> convertRange(@NotNull ParsedSource source, int from, int to, @Nullable String fileName) {
+        Keywords keywords = source.getKeywords();
+        List<String> lines = source.getLines();
         Stack<IfStackEntry> stack = new Stack<>();
         Stack<Integer> indentStack = new Stack<>();
         boolean active = true;
-        int n = 0;
+        int n = from;
 
-        Keywords keywords = keywordsMap.getOrDefault(getExtension(fileName), Keywords.DEFAULT_KEYWORDS);
-
-        List<String> mappedLines = new ArrayList<>();
-        for (final String line : lines) {
+        List<String> mappedLines = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            final String line = lines.get(i);
             n++;
 
-            String trimmed = line.trim();
-            int indentation = line.length() - line.trim().length();
-            if (trimmed.startsWith(keywords.IF())) {
-                boolean result = _evalCondition(trimmed.substring(keywords.IF().length()), n, fileName);
+            int indentation = source.indentation(i);
+            byte kind = source.kind(i);
+            if (kind == ParsedSource.IF) {
+                boolean result = _evalCondition(source.condition(i), n, fileName);
                 stack.push(new IfStackEntry(result, false, result));
                 indentStack.push(indentation);
                 active = active && result;
                 if (!removeComments) {
                     mappedLines.add(line);
                 }
-            } else if (trimmed.startsWith(keywords.ELSEIF())) {
+            } else if (kind == ParsedSource.ELSEIF) {
                 if (stack.isEmpty()) {
                     throw new ParseException("elseif without If-Statement!", n, fileName);
                 }
@@ -202,7 +314,7 @@ public class PreProcessor {
                     stack.push(new IfStackEntry(false, last.elseFound, last.trueFound));
                     active = false;
                 } else {
-                    boolean result = _evalCondition(trimmed.substring(keywords.ELSEIF().length()), n, fileName);
+                    boolean result = _evalCondition(source.condition(i), n, fileName);
                     stack.pop();
                     stack.push(new IfStackEntry(result, false, result));
                     active = stack.stream().allMatch(it -> it.currentValue);
@@ -210,7 +322,7 @@ public class PreProcessor {
                 if (!removeComments) {
                     mappedLines.add(line);
                 }
-            } else if (trimmed.startsWith(keywords.ELSE())) {
+            } else if (kind == ParsedSource.ELSE) {
                 if (stack.isEmpty()) {
                     throw new ParseException("Unexpected else", n, fileName);
                 }
@@ -222,7 +334,7 @@ public class PreProcessor {
                 if (!removeComments) {
                     mappedLines.add(line);
                 }
-            } else if (trimmed.startsWith(keywords.ENDIF())) {
+            } else if (kind == ParsedSource.ENDIF) {
                 if (stack.isEmpty()) {
                     throw new ParseException("endif without If-Statement!", n, fileName);
                 }
@@ -234,16 +346,16 @@ public class PreProcessor {
                 }
             } else {
                 if (active) {
-                    if (trimmed.startsWith(keywords.EVAL())) {
+                    if (kind == ParsedSource.EVAL) {
                         mappedLines.add(line.replaceFirst(Matcher.quoteReplacement(keywords.EVAL()) + " ?", ""));
                     } else {
                         mappedLines.add(line);
                     }
                 } else if (!removeComments) {
                     int currIndent = indentStack.peek();
-                    if (trimmed.isEmpty()) {
+                    if (kind == ParsedSource.BLANK) {
                         mappedLines.add(indentation(currIndent) + keywords.EVAL());
-                    } else if (!trimmed.startsWith(keywords.EVAL()) && currIndent <= indentation) {
+                    } else if (kind != ParsedSource.EVAL && currIndent <= indentation) {
                         mappedLines.add(indentation(currIndent) + keywords.EVAL() + " " + line.substring(currIndent));
                     } else {
                         mappedLines.add(line);
@@ -266,16 +378,38 @@ public class PreProcessor {
      */
     public void convertFile(@NotNull ReMapper reMapper, @NotNull File inFile, @NotNull File outFile) {
         try {
-            List<String> lines = Files.readAllLines(inFile.toPath());
-            lines = this.convertSource(lines, inFile.getName());
-            lines = reMapper.convertSource(lines);
-
-            //noinspection ResultOfMethodCallIgnored
-            outFile.getParentFile().mkdirs();
-            try (FileWriter writer = new FileWriter(outFile)) {
-                for (String line : lines) {
-                    writer.write(line + "\n");
+            if (copyIfUnchanged(reMapper.forFile(inFile.getName()), inFile, outFile)) {
+                return;
+            }
+            ParsedSource source = ParsedFileCache.load(inFile.toPath(), getKeywords(inFile.getName()));
+            if (source == null) {
+                // no text file. Just copy the file
+                if (!inFile.equals(outFile)) {
+                    if (outputStore != null) {
+                        ByteBuffer bytes = FileIO.read(inFile.toPath());
+                        try {
+                            outputStore.write(outFile.toPath(), bytes);
+                        } finally {
+                            BufferPool.release(bytes);
+                        }
+                    } else {
+                        //noinspection ResultOfMethodCallIgnored
+                        outFile.getParentFile().mkdirs();
+                        Files.copy(inFile.toPath(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    }
                 }
+                return;
+            }
+
+            ReMapper fileReMapper = reMapper.forFile(inFile.getName());
+            List<String> lines = this.convertSource(source, inFile.getName(), fileReMapper.isEmpty() ? null : fileReMapper);
+
+            if (!inFile.equals(outFile) && isOmitted(lines, inFile.getName())) {
+                Files.deleteIfExists(outFile.toPath());
+            } else if (outputStore != null && !inFile.equals(outFile)) {
+                outputStore.writeLines(outFile.toPath(), lines);
+            } else {
+                FileIO.writeLines(outFile.toPath(), lines);
             }
         } catch (IOException e) {
             // some error while reading. Just copy the file
@@ -289,6 +423,262 @@ public class PreProcessor {
         }
     }
 
+    /**
+     * Decides like {@link #convertFile(ReMapper, File, File)}, so copying the file or writing the returned lines gives the same result.
+     *
+     * @param reMapper ReMapper to be used to replace matches in the file
+     * @param inFile   the file that shall be preprocessed
+     * @return the preprocessed lines or null, if the file is copied as it is, since preprocessing wouldn't change it or it isn't UTF-8 text
+     */
+    public @Nullable List<String> convertChangedFile(@NotNull ReMapper reMapper, @NotNull File inFile) throws IOException {
+        ReMapper fileReMapper = reMapper.forFile(inFile.getName());
+        if (getScanner(inFile.getName(), fileReMapper) != null) {
+            ByteBuffer bytes = FileIO.read(inFile.toPath());
+            try {
+                if (isUnchanged(bytes, inFile.getName(), fileReMapper)) {
+                    return null;
+                }
+            } finally {
+                BufferPool.release(bytes);
+            }
+        }
+        ParsedSource source = ParsedFileCache.load(inFile.toPath(), getKeywords(inFile.getName()));
+        if (source == null) {
+            return null;
+        }
+        return this.convertSource(source, inFile.getName(), fileReMapper.isEmpty() ? null : fileReMapper);
+    }
+
+    /**
+     * Files with nothing but comments, the package and imports don't define anything, so the compilers don't need to read them.
+     * The package-info and module-info files are always kept, since their comments are used, too.
+     *
+     * @param lines    the preprocessed lines
+     * @param fileName the name of the file
+     * @return true, if omitting inactive files is enabled and the preprocessor commented out all code of this Java or Kotlin file
+     */
+    boolean isOmitted(@NotNull List<String> lines, @NotNull String fileName) {
+        if (!omitInactiveFiles || !ImportManager.isSupported(fileName) || fileName.equals("package-info.java") || fileName.equals("module-info.java")) {
+            return false;
+        }
+        IdentifierScanner scanner = new IdentifierScanner();
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (scanner.isInCode() && (trimmed.startsWith("package ") || trimmed.startsWith("import "))) {
+                continue;
+            }
+            if (scanner.hasCode(line)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the file was copied, since preprocessing it wouldn't change anything
+     */
+    private boolean copyIfUnchanged(@NotNull ReMapper fileReMapper, @NotNull File inFile, @NotNull File outFile) throws IOException {
+        if (getScanner(inFile.getName(), fileReMapper) == null) {
+            return false;
+        }
+        ByteBuffer bytes = FileIO.read(inFile.toPath());
+        try {
+            if (!isUnchanged(bytes, inFile.getName(), fileReMapper)) {
+                return false;
+            }
+            if (!inFile.equals(outFile)) {
+                if (outputStore != null) {
+                    outputStore.write(outFile.toPath(), bytes);
+                } else {
+                    FileIO.write(outFile.toPath(), bytes);
+                }
+            }
+            return true;
+        } finally {
+            BufferPool.release(bytes);
+        }
+    }
+
+    /**
+     * Searches the raw bytes for the keywords and remap keys, so files which wouldn't change don't need to be decoded and parsed.
+     * Files with CR line endings or without a final line break never count as unchanged, since preprocessing normalizes them.
+     *
+     * @param bytes        the content of the file, the position won't be changed
+     * @param fileName     the name of the file
+     * @param fileReMapper the ReMapper for the file type
+     * @return true if preprocessing the file wouldn't change anything
+     */
+    boolean isUnchanged(@NotNull ByteBuffer bytes, @NotNull String fileName, @NotNull ReMapper fileReMapper) {
+        ByteScanner scanner = getScanner(fileName, fileReMapper);
+        return scanner != null && !scanner.containsAny(bytes) && (!bytes.hasRemaining() || bytes.get(bytes.limit() - 1) == '\n');
+    }
+
+    /**
+     * @param bytes    the content of the file, the position won't be changed
+     * @param fileName the name of the file
+     * @param reMapper ReMapper to be used to replace matches in the file
+     * @return the preprocessed lines or null, if the bytes can be copied since they wouldn't change or aren't text
+     */
+    @Nullable List<String> convertBytes(@NotNull ByteBuffer bytes, @NotNull String fileName, @NotNull ReMapper reMapper) {
+        ReMapper fileReMapper = reMapper.forFile(fileName);
+        if (isUnchanged(bytes, fileName, fileReMapper)) {
+            return null;
+        }
+        List<String> lines;
+        try {
+            lines = FileIO.decodeLines(bytes);
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+        return convertSource(ParsedSource.parse(lines, getKeywords(fileName)), fileName, fileReMapper.isEmpty() ? null : fileReMapper);
+    }
+
+    /**
+     * @return the scanner for the keywords of the file type and the remap keys or null, if the remap keys are too complex
+     * or the imports of the file are pruned or inactive files are omitted, since that may change files without directives, too
+     */
+    private @Nullable ByteScanner getScanner(@NotNull String fileName, @NotNull ReMapper fileReMapper) {
+        if ((pruneImports || omitInactiveFiles) && ImportManager.isSupported(fileName)) {
+            return null;
+        }
+        String extension = getExtension(fileName);
+        Scanner scanner = scanners.get(extension);
+        if (scanner == null || scanner.reMapper != fileReMapper) {
+            List<String> literals = fileReMapper.getRequiredLiterals();
+            ByteScanner byteScanner = null;
+            if (literals != null) {
+                Keywords keywords = getKeywords(fileName);
+                List<String> strings = new ArrayList<>(literals);
+                Collections.addAll(strings, keywords.IF(), keywords.ELSEIF(), keywords.ELSE(), keywords.ENDIF(), keywords.EVAL(), "\r");
+                byteScanner = new ByteScanner(strings);
+            }
+            scanner = new Scanner(fileReMapper, byteScanner);
+            scanners.put(extension, scanner);
+        }
+        return scanner.scanner;
+    }
+
+    /**
+     * Preprocesses every file of the input roots into the output root. Walking the directories, reading, preprocessing
+     * and writing happen at the same time in separate threads, connected by bounded queues.
+     *
+     * @param inputRoots the folders to preprocess. If a file exists in multiple folders, the first one is used
+     * @param outputRoot the folder the files are written to, may be one of the input roots to convert them in place
+     * @param options    the ReMapper and the threads to be used
+     * @return the amount of files
+     * @throws IOException if a file couldn't be read or written. Errors of other files are added as suppressed exceptions
+     */
+    public int convertTree(@NotNull List<Path> inputRoots, @NotNull Path outputRoot, @NotNull ConvertOptions options) throws IOException, InterruptedException {
+        return new TreeConverter(this, options).convert(inputRoots, outputRoot);
+    }
+
+    /**
+     * Preprocesses every entry of a zip or jar archive without extracting it. Entries which don't change are copied
+     * without being compressed again. Signatures of jars become invalid, if a signed entry changes.
+     *
+     * @param reMapper ReMapper to be used to replace matches in the entries
+     * @param in       the archive that shall be preprocessed
+     * @param out      the archive the entries are written to, may be the same as the input to convert it in place
+     * @return the amount of changed entries
+     */
+    public int convertArchive(@NotNull ReMapper reMapper, @NotNull Path in, @NotNull Path out) throws IOException {
+        return ArchiveConverter.convert(this, reMapper, in, out);
+    }
+
+    /**
+     * @param reMapper ReMapper to be used to replace matches in the file
+     * @param inFile   the file that shall be preprocessed
+     * @return the preprocessed lines
+     * @throws IOException if the file can't be read or isn't a text file
+     */
+    public List<String> convertFile(@NotNull ReMapper reMapper, @NotNull File inFile) throws IOException {
+        ParsedSource source = ParsedFileCache.load(inFile.toPath(), getKeywords(inFile.getName()));
+        if (source == null) {
+            throw new CharacterCodingException();
+        }
+        ReMapper fileReMapper = reMapper.forFile(inFile.getName());
+        return this.convertSource(source, inFile.getName(), fileReMapper.isEmpty() ? null : fileReMapper);
+    }
+
+    /**
+     * Checks the if-statements of a file without preprocessing it. Only the directive lines are looked at and
+     * every condition is evaluated, even if it isn't reached with the current vars.
+     *
+     * @param source   the parsed file
+     * @param fileName the file name for the error messages
+     * @return every error in the file, in the order of the lines
+     */
+    public @NotNull List<ParseException> validate(@NotNull ParsedSource source, @Nullable String fileName) {
+        List<ParseException> errors = new ArrayList<>();
+        // true, if the else of the if-statement was found
+        Deque<Boolean> stack = new ArrayDeque<>();
+        for (int i = 0; i < source.size(); i++) {
+            byte kind = source.kind(i);
+            if (kind < ParsedSource.IF) {
+                continue;
+            }
+            int n = i + 1;
+            try {
+                if (kind == ParsedSource.IF) {
+                    stack.push(false);
+                    _evalCondition(source.condition(i), n, fileName);
+                } else if (kind == ParsedSource.ELSEIF) {
+                    if (stack.isEmpty()) {
+                        throw new ParseException("elseif without If-Statement!", n, fileName);
+                    }
+                    if (stack.peek()) {
+                        throw new ParseException("elseif after else!", n, fileName);
+                    }
+                    _evalCondition(source.condition(i), n, fileName);
+                } else if (kind == ParsedSource.ELSE) {
+                    if (stack.isEmpty()) {
+                        throw new ParseException("Unexpected else", n, fileName);
+                    }
+                    stack.pop();
+                    stack.push(true);
+                } else if (stack.isEmpty()) {
+                    throw new ParseException("endif without If-Statement!", n, fileName);
+                } else {
+                    stack.pop();
+                }
+            } catch (ParseException e) {
+                errors.add(e);
+            }
+        }
+        if (!stack.isEmpty()) {
+            errors.add(new ParseException("Missing endif!", source.size(), fileName));
+        }
+        return errors;
+    }
+
+    /**
+     * @param inFile the file that shall be checked
+     * @return every error in the file. Files which aren't text files have no errors
+     * @see #validate(ParsedSource, String)
+     */
+    public @NotNull List<ParseException> validateFile(@NotNull File inFile) throws IOException {
+        ParsedSource source = ParsedFileCache.load(inFile.toPath(), getKeywords(inFile.getName()));
+        return source != null ? validate(source, inFile.getName()) : Collections.emptyList();
+    }
+
+    /**
+     * @param fileName the file name, can be null
+     * @return the custom keywords for the file type or the default ones
+     */
+    public @NotNull Keywords getKeywords(@Nullable String fileName) {
+        return keywordsMap.getOrDefault(getExtension(fileName), Keywords.DEFAULT_KEYWORDS);
+    }
+
+    private static final class Scanner {
+        private final ReMapper reMapper;
+        private final @Nullable ByteScanner scanner;
+
+        private Scanner(ReMapper reMapper, @Nullable ByteScanner scanner) {
+            this.reMapper = reMapper;
+            this.scanner = scanner;
+        }
+    }
+
     private static final class IfStackEntry {
         private final boolean currentValue;
         private final boolean elseFound;
@@ -302,7 +692,7 @@ public class PreProcessor {
 
     }
 
-    private static @NotNull String getExtension(@Nullable String fileName) {
+    static @NotNull String getExtension(@Nullable String fileName) {
         String extension = "";
         if (fileName != null) {
             int i = fileName.lastIndexOf('.');
@@ -1,16 +1,141 @@
 package dev.tocraft.gradle.preprocess.util;
 
+import dev.tocraft.gradle.preprocess.data.Keywords;
+import dev.tocraft.gradle.preprocess.data.PreprocessExtension;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 public class ReMapper {
     private final Map<String, String> map;
+    /**
+     * @see PreprocessExtension#fileRemapper
+     */
+    private final Map<String, Map<String, String>> fileMaps;
+    /**
+     * the resolved ReMappers per file extension
+     */
+    private final Map<String, ReMapper> routes = new ConcurrentHashMap<>();
+    /**
+     * @see PreprocessExtension#identifierRemap
+     */
+    private final boolean identifiers;
+    /**
+     * @see PreprocessExtension#remapInactive
+     */
+    private final boolean remapInactive;
+    private final List<Pattern> patterns = new ArrayList<>();
+    private final List<String> replacements = new ArrayList<>();
+    /**
+     * the highest amount of segments of a dotted key, so not every prefix of a name has to be looked up
+     */
+    private int maxSegments = 1;
 
     public ReMapper(Map<String, String> map) {
-        this.map = map;
+        this(map, false, true);
+    }
+
+    /**
+     * @param map           each key will be replaced with the respective value
+     * @param identifiers   if the keys are identifiers or dotted names instead of regexes
+     * @param remapInactive if lines that were commented out by the {@link PreProcessor} shall be remapped, too
+     */
+    public ReMapper(Map<String, String> map, boolean identifiers, boolean remapInactive) {
+        this(map, Collections.emptyMap(), identifiers, remapInactive);
+    }
+
+    /**
+     * @param map           each key will be replaced with the respective value, used for every file
+     * @param fileMaps      additional maps, where the key is the file extension (e.g. 'json') the map is used for
+     * @param identifiers   if the keys are identifiers or dotted names instead of regexes
+     * @param remapInactive if lines that were commented out by the {@link PreProcessor} shall be remapped, too
+     */
+    public ReMapper(Map<String, String> map, Map<String, Map<String, String>> fileMaps, boolean identifiers, boolean remapInactive) {
+        this.map = identifiers ? new HashMap<>(map) : map;
+        this.fileMaps = fileMaps;
+        this.identifiers = identifiers;
+        this.remapInactive = remapInactive;
+
+        if (identifiers) {
+            for (String key : map.keySet()) {
+                maxSegments = Math.max(maxSegments, key.split("\\.").length);
+            }
+        } else {
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                patterns.add(Pattern.compile(entry.getKey()));
+                replacements.add(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return true if this ReMapper won't change any line
+     */
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    /**
+     * @return true if every line can be remapped on its own, so a file can be split
+     */
+    public boolean isLineIndependent() {
+        return !identifiers;
+    }
+
+    /**
+     * Text that every match of a key must contain, so files without any of these can't be changed by this ReMapper
+     *
+     * @return one string per key or null, if a regex key is too complex to tell
+     */
+    @Nullable List<String> getRequiredLiterals() {
+        List<String> literals = new ArrayList<>(map.size());
+        for (String key : map.keySet()) {
+            if (identifiers) {
+                literals.add(key);
+                continue;
+            }
+            String longest = "";
+            for (String part : key.split("\\.", -1)) {
+                for (int i = 0; i < part.length(); i++) {
+                    if ("\\^$|?*+()[]{}".indexOf(part.charAt(i)) >= 0) {
+                        return null;
+                    }
+                }
+                if (part.length() > longest.length()) {
+                    longest = part;
+                }
+            }
+            if (longest.isEmpty()) {
+                return null;
+            }
+            literals.add(longest);
+        }
+        return literals;
+    }
+
+    /**
+     * Routes a file to the table for its file type, so it only has to be resolved once per extension
+     *
+     * @param fileName the name of the file that shall be remapped
+     * @return the ReMapper with the general and the file type specific entries
+     */
+    public @NotNull ReMapper forFile(@NotNull String fileName) {
+        if (fileMaps.isEmpty()) {
+            return this;
+        }
+        return routes.computeIfAbsent(PreProcessor.getExtension(fileName), extension -> {
+            Map<String, String> fileMap = fileMaps.get(extension);
+            if (fileMap == null || fileMap.isEmpty()) {
+                // the general entries are already compiled
+                return this;
+            }
+            Map<String, String> merged = new LinkedHashMap<>(map);
+            merged.putAll(fileMap);
+            return new ReMapper(merged, identifiers, remapInactive);
+        });
     }
 
     /**
@@ -18,15 +143,94 @@ public class ReMapper {
      * @return the preprocessed lines
      */
     public List<String> convertSource(@NotNull List<String> lines) {
-        List<String> rmLines = new ArrayList<>();
+        return convertSource(lines, Keywords.DEFAULT_KEYWORDS);
+    }
+
+    /**
+     * @param lines    the file, already read as lines
+     * @param keywords the keywords of the file, required to detect lines that were commented out
+     * @return the preprocessed lines
+     */
+    public List<String> convertSource(@NotNull List<String> lines, @NotNull Keywords keywords) {
+        if (map.isEmpty()) {
+            return lines;
+        }
+
+        List<String> rmLines = new ArrayList<>(lines.size());
+        IdentifierScanner scanner = identifiers ? new IdentifierScanner() : null;
 
         for (String line : lines) {
-            for (Map.Entry<String, String> entry : map.entrySet()) {
-                line = line.replaceAll(entry.getKey(), entry.getValue());
+            int start = 0;
+            String trimmed = line.trim();
+            if (trimmed.startsWith(keywords.EVAL())) {
+                if (!remapInactive) {
+                    rmLines.add(line);
+                    continue;
+                }
+                start = line.indexOf(keywords.EVAL()) + keywords.EVAL().length();
+            }
+
+            if (scanner != null) {
+                rmLines.add(remapIdentifiers(scanner, line, start));
+            } else {
+                for (int i = 0; i < patterns.size(); i++) {
+                    line = patterns.get(i).matcher(line).replaceAll(replacements.get(i));
+                }
+                rmLines.add(line);
             }
-            rmLines.add(line);
         }
 
         return rmLines;
     }
+
+    private @NotNull String remapIdentifiers(@NotNull IdentifierScanner scanner, @NotNull String line, int start) {
+        StringBuilder builder = new StringBuilder(line.length());
+        int[] copied = {0};
+        scanner.scan(line, start, (l, from, to) -> {
+            int segmentStart = from;
+            while (segmentStart < to) {
+                // try the longest known dotted name first, then shorten it segment by segment.
+                // Dotted keys only match at the start of the name, so they don't replace the middle of another package
+                int segmentEnd = segmentEnd(l, segmentStart, to, segmentStart == from ? maxSegments : 1);
+                String replacement = null;
+                while (true) {
+                    replacement = map.get(l.substring(segmentStart, segmentEnd));
+                    if (replacement != null) {
+                        break;
+                    }
+                    int shorter = l.lastIndexOf('.', segmentEnd - 1);
+                    if (shorter < segmentStart) {
+                        break;
+                    }
+                    segmentEnd = shorter;
+                }
+
+                if (replacement != null) {
+                    builder.append(l, copied[0], segmentStart).append(replacement);
+                    copied[0] = segmentEnd;
+                    segmentStart = segmentEnd + 1;
+                } else {
+                    int next = l.indexOf('.', segmentStart);
+                    segmentStart = next < 0 || next >= to ? to : next + 1;
+                }
+            }
+        });
+
+        if (copied[0] == 0) {
+            return line;
+        }
+        return builder.append(line, copied[0], line.length()).toString();
+    }
+
+    private static int segmentEnd(@NotNull String line, int from, int to, int segments) {
+        int end = from;
+        for (int i = 0; i < segments; i++) {
+            int dot = line.indexOf('.', end + 1);
+            if (dot < 0 || dot >= to) {
+                return to;
+            }
+            end = dot;
+        }
+        return end;
+    }
 }
@@ -0,0 +1,238 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Preprocesses directory trees in four stages, which are connected by bounded queues:
+ * walking the directories, reading the files, preprocessing them and writing them.
+ * So the disk and the CPU are busy at the same time and only a limited amount of files is held in memory.
+ */
+final class TreeConverter {
+    /**
+     * tells the next stage that no more files will follow
+     */
+    private static final Job END = new Job(null, null);
+
+    private final PreProcessor preProcessor;
+    private final ConvertOptions options;
+    private final BlockingQueue<Job> readQueue;
+    private final BlockingQueue<Job> convertQueue;
+    private final BlockingQueue<Job> writeQueue;
+    private final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+    private final List<Thread> threads = new ArrayList<>();
+
+    TreeConverter(@NotNull PreProcessor preProcessor, @NotNull ConvertOptions options) {
+        this.preProcessor = preProcessor;
+        this.options = options;
+        this.readQueue = new ArrayBlockingQueue<>(options.queueCapacity);
+        this.convertQueue = new ArrayBlockingQueue<>(options.queueCapacity);
+        this.writeQueue = new ArrayBlockingQueue<>(options.queueCapacity);
+    }
+
+    /**
+     * @see PreProcessor#convertTree(List, Path, ConvertOptions)
+     */
+    int convert(@NotNull List<Path> inputRoots, @NotNull Path outputRoot) throws IOException, InterruptedException {
+        ThreadFactory ioThreads = createThreadFactory("preprocess-io", options.virtualThreads);
+        ThreadFactory cpuThreads = createThreadFactory("preprocess-cpu", false);
+        start(ioThreads, options.ioThreads, readQueue, convertQueue, options.cpuThreads, this::read);
+        start(cpuThreads, options.cpuThreads, convertQueue, writeQueue, options.ioThreads, this::convert);
+        start(ioThreads, options.ioThreads, writeQueue, null, 0, this::write);
+
+        int[] files = {0};
+        try {
+            Set<String> found = new HashSet<>();
+            for (Path inputRoot : inputRoots) {
+                Files.walkFileTree(inputRoot, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        // the other files are still preprocessed, the error is thrown in the end
+                        errors.add(e);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        String relPath = inputRoot.relativize(file).toString();
+                        // the first root containing a file wins
+                        if (found.add(relPath)) {
+                            try {
+                                readQueue.put(new Job(file, outputRoot.resolve(relPath)));
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return FileVisitResult.TERMINATE;
+                            }
+                            files[0]++;
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            finish();
+        }
+
+        if (!errors.isEmpty()) {
+            Throwable first = errors.get(0);
+            for (int i = 1; i < errors.size(); i++) {
+                first.addSuppressed(errors.get(i));
+            }
+            if (first instanceof IOException) {
+                throw (IOException) first;
+            }
+            if (first instanceof Error) {
+                throw (Error) first;
+            }
+            throw (RuntimeException) first;
+        }
+        return files[0];
+    }
+
+    /**
+     * Tells the reading threads that no more files will follow and waits for every stage, even if walking the directories failed.
+     * If the current thread is interrupted, every stage is interrupted, too.
+     */
+    private void finish() throws InterruptedException {
+        try {
+            for (int i = 0; i < options.ioThreads; i++) {
+                readQueue.put(END);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            throw e;
+        }
+    }
+
+    private void read(@NotNull Job job) throws IOException {
+        job.bytes = FileIO.read(job.in);
+    }
+
+    private void convert(@NotNull Job job) {
+        List<String> lines = preProcessor.convertBytes(job.bytes, job.in.getFileName().toString(), options.reMapper);
+        if (lines != null) {
+            BufferPool.release(job.bytes);
+            job.bytes = null;
+            job.lines = lines;
+        }
+    }
+
+    private void write(@NotNull Job job) throws IOException {
+        try {
+            if (job.lines != null) {
+                FileIO.writeLines(job.out, job.lines);
+            } else if (!job.in.equals(job.out)) {
+                FileIO.write(job.out, job.bytes);
+            }
+        } finally {
+            if (job.bytes != null) {
+                BufferPool.release(job.bytes);
+            }
+        }
+    }
+
+    /**
+     * Starts the threads of a stage. The last thread to finish tells the next stage, that no more files will follow.
+     * Every error of a file is collected, so no thread stops early and leaves the other stages waiting.
+     */
+    private void start(@NotNull ThreadFactory factory, int amount, @NotNull BlockingQueue<Job> in, @Nullable BlockingQueue<Job> out, int nextAmount, @NotNull Stage stage) {
+        AtomicInteger running = new AtomicInteger(amount);
+        for (int i = 0; i < amount; i++) {
+            Thread thread = factory.newThread(() -> {
+                try {
+                    for (Job job = in.take(); job != END; job = in.take()) {
+                        if (job.failed) {
+                            // skip failed files, but keep them in the pipeline until their buffers are released
+                            if (out == null && job.bytes != null) {
+                                BufferPool.release(job.bytes);
+                            }
+                        } else {
+                            try {
+                                stage.run(job);
+                            } catch (Throwable e) {
+                                job.failed = true;
+                                errors.add(e);
+                            }
+                        }
+                        if (out != null) {
+                            out.put(job);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (running.decrementAndGet() == 0 && out != null) {
+                        try {
+                            for (int j = 0; j < nextAmount; j++) {
+                                out.put(END);
+                            }
+                        } catch (InterruptedException e) {
+                            // only happens if the whole conversion is interrupted, so every stage is interrupted anyway
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * @param virtual if virtual threads shall be used, if the JVM supports them
+     */
+    private static @NotNull ThreadFactory createThreadFactory(@NotNull String name, boolean virtual) {
+        if (virtual) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException ignored) {
+                // virtual threads need Java 21, so platform threads are used instead
+            }
+        }
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @FunctionalInterface
+    private interface Stage {
+        void run(@NotNull Job job) throws Exception;
+    }
+
+    private static final class Job {
+        private final Path in;
+        private final Path out;
+        private ByteBuffer bytes = null;
+        private List<String> lines = null;
+        private boolean failed = false;
+
+        private Job(Path in, Path out) {
+            this.in = in;
+            this.out = out;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import dev.tocraft.gradle.preprocess.data.Keywords;
+import dev.tocraft.gradle.preprocess.util.VarSnapshot.Value;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checks the if-statements of a file for many var sets at once. Every condition is compiled and evaluated once for all var sets
+ * and the if-statements are followed with one bit per var set, so a file is only read once instead of once per var set.
+ */
+public final class VarMatrix {
+    private final List<String> names;
+    private final VarSnapshot vars;
+    /**
+     * the values of the var sets, in groups of 64
+     */
+    private final Value[][][] words;
+    private final Map<String, Keywords> keywordsMap;
+    /**
+     * the result of every condition for every var set, since the same conditions are used in many files
+     */
+    private final Map<String, Result> results = new ConcurrentHashMap<>();
+
+    /**
+     * @param varSets     the vars of every var set by its name
+     * @param keywordsMap custom keywords, where the key is something the target file name should end with (e.g. '.json') and the Keywords are the custom keywords for this file type.
+     */
+    public VarMatrix(@NotNull Map<String, Map<String, Object>> varSets, @NotNull Map<String, Keywords> keywordsMap) {
+        this.names = new ArrayList<>(varSets.keySet());
+        this.vars = VarSnapshot.names(varSets.values());
+        this.words = new Value[(names.size() + 63) / 64][][];
+        int i = 0;
+        for (Map<String, Object> varSet : varSets.values()) {
+            if (i % 64 == 0) {
+                words[i / 64] = new Value[Math.min(64, names.size() - i)][];
+            }
+            words[i / 64][i % 64] = vars.valuesOf(varSet);
+            i++;
+        }
+        this.keywordsMap = keywordsMap;
+    }
+
+    /**
+     * @return the amount of var sets
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Follows the if-statements like {@link PreProcessor#convertSource(List, String)} does for every var set.
+     * Errors in the structure are reported once, errors of conditions once per line with all var sets they occur with.
+     * A var set is no longer checked in a file after its first error, since preprocessing stops there, too.
+     *
+     * @param source   the parsed file
+     * @param fileName the file name for the error messages
+     * @return every error in the file, in the order of the lines
+     */
+    public @NotNull List<ParseException> validate(@NotNull ParsedSource source, @Nullable String fileName) {
+        List<ParseException> errors = new ArrayList<>();
+        int count = words.length;
+        // the var sets without an error so far
+        long[] alive = new long[count];
+        for (int w = 0; w < count; w++) {
+            alive[w] = words[w].length == 64 ? -1L : (1L << words[w].length) - 1;
+        }
+        // the var sets, for which a branch of the if-statement was already true
+        Deque<long[]> trueFound = new ArrayDeque<>();
+        // true, if the else of the if-statement was found
+        Deque<Boolean> elseFound = new ArrayDeque<>();
+
+        for (int i = 0; i < source.size(); i++) {
+            byte kind = source.kind(i);
+            if (kind < ParsedSource.IF) {
+                continue;
+            }
+            int n = i + 1;
+            if (kind == ParsedSource.IF) {
+                long[] found = new long[count];
+                if (checkCondition(source.condition(i), n, fileName, errors)) {
+                    evaluate(source.condition(i).trim(), alive, alive, found, n, fileName, errors);
+                }
+                trueFound.push(found);
+                elseFound.push(false);
+            } else if (kind == ParsedSource.ELSEIF) {
+                if (trueFound.isEmpty()) {
+                    errors.add(new ParseException("elseif without If-Statement!", n, fileName));
+                } else if (elseFound.peek()) {
+                    errors.add(new ParseException("elseif after else!", n, fileName));
+                } else if (checkCondition(source.condition(i), n, fileName, errors)) {
+                    long[] found = trueFound.peek();
+                    long[] mask = new long[count];
+                    for (int w = 0; w < count; w++) {
+                        mask[w] = alive[w] & ~found[w];
+                    }
+                    evaluate(source.condition(i).trim(), mask, alive, found, n, fileName, errors);
+                }
+            } else if (kind == ParsedSource.ELSE) {
+                if (trueFound.isEmpty()) {
+                    errors.add(new ParseException("Unexpected else", n, fileName));
+                } else {
+                    elseFound.pop();
+                    elseFound.push(true);
+                }
+            } else if (trueFound.isEmpty()) {
+                errors.add(new ParseException("endif without If-Statement!", n, fileName));
+            } else {
+                trueFound.pop();
+                elseFound.pop();
+            }
+        }
+        if (!trueFound.isEmpty()) {
+            errors.add(new ParseException("Missing endif!", source.size(), fileName));
+        }
+        return errors;
+    }
+
+    /**
+     * @param inFile the file that shall be checked
+     * @return every error in the file. Files which aren't text files have no errors
+     * @see #validate(ParsedSource, String)
+     */
+    public @NotNull List<ParseException> validateFile(@NotNull File inFile) throws IOException {
+        ParsedSource source = ParsedFileCache.load(inFile.toPath(), keywordsMap.getOrDefault(PreProcessor.getExtension(inFile.getName()), Keywords.DEFAULT_KEYWORDS));
+        return source != null ? validate(source, inFile.getName()) : Collections.emptyList();
+    }
+
+    /**
+     * @return false, if the condition is invalid for every var set
+     */
+    private static boolean checkCondition(@NotNull String condition, int lineNumber, @Nullable String fileName, @NotNull List<ParseException> errors) {
+        if (!condition.startsWith(" ")) {
+            errors.add(new ParseException("Expected space before condition!", lineNumber, fileName));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param mask  the var sets, which evaluate the condition
+     * @param alive the var sets without an error so far. The var sets failing now are removed
+     * @param found the var sets, for which a branch is true. The var sets the condition is true for are added
+     */
+    private void evaluate(@NotNull String condition, long @NotNull [] mask, long @NotNull [] alive, long @NotNull [] found, int lineNumber, @Nullable String fileName, @NotNull List<ParseException> errors) {
+        Result result = results.computeIfAbsent(condition, this::evaluate);
+        // the var sets with the same message are reported together
+        Map<String, List<String>> failed = new LinkedHashMap<>();
+        for (int w = 0; w < words.length; w++) {
+            found[w] |= result.trueMask[w] & mask[w];
+            long failures = result.failureMask[w] & mask[w];
+            alive[w] &= ~failures;
+            for (long bits = failures; bits != 0; bits &= bits - 1) {
+                int i = w * 64 + Long.numberOfTrailingZeros(bits);
+                failed.computeIfAbsent(result.messages[i], key -> new ArrayList<>()).add(names.get(i));
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : failed.entrySet()) {
+            errors.add(new ParseException(entry.getKey() + " (" + String.join(", ", entry.getValue()) + ")", lineNumber, fileName));
+        }
+    }
+
+    private @NotNull Result evaluate(@NotNull String condition) {
+        Condition compiled = Condition.compile(condition, vars);
+        Result result = new Result(words.length, names.size());
+        for (int w = 0; w < words.length; w++) {
+            Value[][] values = words[w];
+            long mask = values.length == 64 ? -1L : (1L << values.length) - 1;
+            Condition.Failures failures = new Condition.Failures();
+            result.trueMask[w] = compiled.testAll(values, mask, failures);
+            result.failureMask[w] = failures.mask;
+            for (long bits = failures.mask; bits != 0; bits &= bits - 1) {
+                int i = Long.numberOfTrailingZeros(bits);
+                result.messages[w * 64 + i] = failures.messages[i];
+            }
+        }
+        return result;
+    }
+
+    private static final class Result {
+        private final long[] trueMask;
+        private final long[] failureMask;
+        private final String[] messages;
+
+        private Result(int words, int size) {
+            this.trueMask = new long[words];
+            this.failureMask = new long[words];
+            this.messages = new String[size];
+        }
+    }
+}
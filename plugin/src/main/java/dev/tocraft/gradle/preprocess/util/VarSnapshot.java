@@ -0,0 +1,196 @@
+package dev.tocraft.gradle.preprocess.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
+
+/**
+ * The vars of a preprocessor, converted once into typed values, so conditions only need to look them up by their index
+ */
+final class VarSnapshot {
+    static final byte NUMBER = 0;
+    static final byte BOOLEAN = 1;
+    static final byte VERSION = 2;
+    static final byte STRING = 3;
+
+    private static final Pattern VERSION_PATTERN = Pattern.compile("\\d+(\\.\\d+)+");
+
+    private final Map<String, Integer> indices;
+    final Value[] values;
+
+    private VarSnapshot(Map<String, Integer> indices, Value[] values) {
+        this.indices = indices;
+        this.values = values;
+    }
+
+    /**
+     * Resolves the vars. Values which are {@link Callable}s, e.g. Groovy closures, are called a single time.
+     * Vars without a value are left out, so they are handled like unknown vars.
+     *
+     * @param vars the vars of the preprocessor
+     * @return the resolved vars
+     */
+    static @NotNull VarSnapshot of(@NotNull Map<String, Object> vars) {
+        Map<String, Integer> indices = new HashMap<>();
+        Value[] values = new Value[vars.size()];
+        for (Map.Entry<String, Object> entry : vars.entrySet()) {
+            Value value = Value.of(entry.getValue());
+            if (value != null) {
+                values[indices.size()] = value;
+                indices.put(entry.getKey(), indices.size());
+            }
+        }
+        return new VarSnapshot(indices, values);
+    }
+
+    /**
+     * @param varSets the vars of every var set
+     * @return the names of the vars of all var sets, so conditions can be compiled once for all of them.
+     * The values must be read with {@link #valuesOf(Map)}
+     */
+    static @NotNull VarSnapshot names(@NotNull Collection<Map<String, Object>> varSets) {
+        Map<String, Integer> indices = new HashMap<>();
+        for (Map<String, Object> vars : varSets) {
+            for (String name : vars.keySet()) {
+                indices.putIfAbsent(name, indices.size());
+            }
+        }
+        return new VarSnapshot(indices, new Value[indices.size()]);
+    }
+
+    /**
+     * @param vars the vars of one var set
+     * @return the values in the order of this snapshot, where vars without a value are null
+     */
+    @Nullable Value @NotNull [] valuesOf(@NotNull Map<String, Object> vars) {
+        Value[] values = new Value[indices.size()];
+        for (Map.Entry<String, Object> entry : vars.entrySet()) {
+            Integer index = indices.get(entry.getKey());
+            if (index != null) {
+                values[index] = Value.of(entry.getValue());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the index of the var or -1, if there is no such var
+     */
+    int indexOf(@NotNull String name) {
+        return indices.getOrDefault(name, -1);
+    }
+
+    /**
+     * A typed var or literal
+     */
+    static final class Value {
+        final byte type;
+        final long number;
+        final @Nullable long[] version;
+        final String string;
+
+        private Value(byte type, long number, @Nullable long[] version, String string) {
+            this.type = type;
+            this.number = number;
+            this.version = version;
+            this.string = string;
+        }
+
+        /**
+         * @return the typed value or null, if there is no value
+         */
+        static @Nullable Value of(@Nullable Object value) {
+            if (value instanceof Callable) {
+                try {
+                    value = ((Callable<?>) value).call();
+                } catch (Exception e) {
+                    throw new IllegalStateException("Couldn't resolve var value " + value, e);
+                }
+            }
+            if (value == null) {
+                return null;
+            }
+            if (value instanceof Boolean) {
+                return new Value(BOOLEAN, (Boolean) value ? 1 : 0, null, value.toString());
+            }
+            if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                return new Value(NUMBER, ((Number) value).longValue(), null, value.toString());
+            }
+            String string = value.toString();
+            Value literal = parseLiteral(string);
+            return literal != null ? literal : new Value(STRING, 0, null, string);
+        }
+
+        /**
+         * @param string some text
+         * @return the text as a string value, even if it looks like a number
+         */
+        static @NotNull Value string(@NotNull String string) {
+            return new Value(STRING, 0, null, string);
+        }
+
+        /**
+         * @param token some text of a condition
+         * @return the number, boolean or version or null, if the text is none of these
+         */
+        static @Nullable Value parseLiteral(@NotNull String token) {
+            if (token.equals("true") || token.equals("false")) {
+                return new Value(BOOLEAN, token.equals("true") ? 1 : 0, null, token);
+            }
+            try {
+                return new Value(NUMBER, Long.parseLong(token), null, token);
+            } catch (NumberFormatException ignored) {
+            }
+            if (VERSION_PATTERN.matcher(token).matches()) {
+                String[] parts = token.split("\\.");
+                long[] version = new long[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    try {
+                        version[i] = Long.parseLong(parts[i]);
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                }
+                return new Value(VERSION, 0, version, token);
+            }
+            return null;
+        }
+
+        /**
+         * @return the value of this var, if it's used as a condition on its own
+         */
+        boolean isTrue() {
+            return (type != NUMBER && type != BOOLEAN) || number != 0;
+        }
+
+        /**
+         * Compares numbers and versions, where a number is handled like a version with a single part
+         *
+         * @return a negative number, zero or a positive number if this is less, equal or greater than the other value
+         */
+        int compareTo(@NotNull Value other) {
+            if (version == null && other.version == null) {
+                return Long.compare(number, other.number);
+            }
+            long[] lhs = version != null ? version : new long[]{number};
+            long[] rhs = other.version != null ? other.version : new long[]{other.number};
+            for (int i = 0; i < Math.max(lhs.length, rhs.length); i++) {
+                int compared = Long.compare(i < lhs.length ? lhs[i] : 0, i < rhs.length ? rhs[i] : 0);
+                if (compared != 0) {
+                    return compared;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return string;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package dev.tocraft.gradle.preprocess;
+
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the preprocess tasks on a generated large project and compares the timings and the peak heap of the Gradle daemon
+ * with the stored baselines.
+ * <p>
+ * System properties:
+ * <ul>
+ *     <li>{@code preprocess.perf.baselines} - the properties file with the baselines</li>
+ *     <li>{@code preprocess.perf.results} - the properties file the results are written to</li>
+ *     <li>{@code preprocess.perf.margin} - how much a result may exceed its baseline, e.g. 0.25 for 25%</li>
+ *     <li>{@code preprocess.perf.updateBaselines} - if true, the results are written to the baselines instead of being compared.
+ *     Otherwise, every result needs a baseline</li>
+ *     <li>{@code preprocess.perf.files} - the amount of generated java and kotlin files</li>
+ *     <li>{@code preprocess.perf.iterations} - how often each scenario runs, the median is used</li>
+ * </ul>
+ */
+class PreProcessorPerformanceTest {
+    private static final String[] TASKS = {"preprocessJava", "preprocessKotlin", "preprocessResources"};
+    private static final Pattern PEAK_HEAP = Pattern.compile("PEAK_HEAP=(\\d+)");
+    private static final int NESTING = 8;
+    private static final int REMAP_ENTRIES = 300;
+
+    @TempDir
+    File projectDir;
+
+    @Test
+    void testPerformance() throws IOException {
+        int files = Integer.getInteger("preprocess.perf.files", 2000);
+        int iterations = Integer.getInteger("preprocess.perf.iterations", 3);
+        generateProject(files);
+
+        GradleRunner runner = GradleRunner.create()
+                .withPluginClasspath()
+                .withProjectDir(projectDir);
+        // start the daemon and resolve the plugins, so only the preprocessing is measured
+        runner.withArguments("help").build();
+
+        Properties results = new Properties();
+        measure(results, "clean", iterations, () -> runner.withArguments("clean").build(), () -> runner.withArguments(TASKS).build());
+        int[] change = {0};
+        measure(results, "incremental", iterations, () -> writeJavaFile(0, ++change[0]), () -> runner.withArguments(TASKS).build());
+        measure(results, "noop", iterations, () -> {
+        }, () -> runner.withArguments(TASKS).build());
+
+        Path resultsFile = new File(System.getProperty("preprocess.perf.results", new File(projectDir, "results.properties").getPath())).toPath();
+        store(results, resultsFile);
+
+        Path baselinesFile = new File(System.getProperty("preprocess.perf.baselines", new File(projectDir, "baselines.properties").getPath())).toPath();
+        if (Boolean.getBoolean("preprocess.perf.updateBaselines")) {
+            store(results, baselinesFile);
+            return;
+        }
+
+        Properties baselines = new Properties();
+        if (Files.exists(baselinesFile)) {
+            try (Reader reader = Files.newBufferedReader(baselinesFile, StandardCharsets.UTF_8)) {
+                baselines.load(reader);
+            }
+        }
+        double margin = Double.parseDouble(System.getProperty("preprocess.perf.margin", "0.25"));
+        List<String> regressions = new ArrayList<>();
+        for (String key : results.stringPropertyNames()) {
+            String baseline = baselines.getProperty(key);
+            if (baseline == null) {
+                // new scenarios need a baseline, too
+                regressions.add("No baseline for " + key + ", measured " + results.getProperty(key) + ". Record it with -PupdatePerfBaselines");
+                continue;
+            }
+            long actual = Long.parseLong(results.getProperty(key));
+            long allowed = (long) (Long.parseLong(baseline) * (1 + margin));
+            System.out.println(key + ": " + actual + " (baseline " + baseline + ", allowed " + allowed + ")");
+            if (actual > allowed) {
+                regressions.add(key + " is " + actual + ", but only " + allowed + " is allowed");
+            }
+        }
+        assertTrue(regressions.isEmpty(), "Performance regressions:\n" + String.join("\n", regressions));
+    }
+
+    /**
+     * Runs the scenario a few times and stores the median of the duration and the peak heap
+     *
+     * @param prepare is run before every build, but not measured
+     */
+    private void measure(@NotNull Properties results, @NotNull String scenario, int iterations, @NotNull Preparation prepare, @NotNull Scenario run) throws IOException {
+        long[] millis = new long[iterations];
+        long[] heap = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            prepare.run();
+            long start = System.nanoTime();
+            BuildResult result = run.run();
+            millis[i] = (System.nanoTime() - start) / 1_000_000;
+
+            Matcher matcher = PEAK_HEAP.matcher(result.getOutput());
+            while (matcher.find()) {
+                heap[i] = Math.max(heap[i], Long.parseLong(matcher.group(1)));
+            }
+        }
+        results.setProperty(scenario + ".millis", Long.toString(median(millis)));
+        results.setProperty(scenario + ".heapBytes", Long.toString(median(heap)));
+    }
+
+    private static long median(@NotNull long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private void generateProject(int files) throws IOException {
+        writeString(new File(projectDir, "settings.gradle"), "");
+
+        StringBuilder remapper = new StringBuilder();
+        for (int i = 0; i < REMAP_ENTRIES; i++) {
+            remapper.append("remapper.put(\"perf.old.Type").append(i).append("\", \"perf.new.Type").append(i).append("\")\n");
+        }
+        writeString(new File(projectDir, "build.gradle"),
+                "import java.lang.management.ManagementFactory\n" +
+                        "import java.lang.management.MemoryType\n" +
+                        "plugins {\n" +
+                        "id('java')\n" +
+                        "id('org.jetbrains.kotlin.jvm') version '2.0.0'\n" +
+                        "id('dev.tocraft.preprocessor')\n" +
+                        "}\n" +
+                        "repositories {\n" +
+                        "mavenCentral()\n" +
+                        "}\n" +
+                        "preprocess {\n" +
+                        "vars.put(\"mc\", \"12001\")\n" +
+                        "vars.put(\"fabric\", \"1\")\n" +
+                        remapper +
+                        "}\n" +
+                        "def heapPools = ManagementFactory.memoryPoolMXBeans.findAll { it.type == MemoryType.HEAP }\n" +
+                        "gradle.taskGraph.whenReady { heapPools*.resetPeakUsage() }\n" +
+                        "gradle.taskGraph.afterTask { println \"PEAK_HEAP=\" + heapPools.sum { it.peakUsage.used } }\n");
+
+        for (int i = 0; i < files; i++) {
+            writeJavaFile(i, 0);
+            writeString(new File(projectDir, "src/main/kotlin/perf/KotlinType" + i + ".kt"), source("class KotlinType" + i, i, 0));
+        }
+
+        StringBuilder json = new StringBuilder("{\n");
+        for (int i = 0; i < 50_000; i++) {
+            json.append("  //#if fabric\n  \"perf.old.Type").append(i % REMAP_ENTRIES).append("_").append(i).append("\": ").append(i).append(",\n  //#else\n  //$$ \"forge_").append(i).append("\": ").append(i).append(",\n  //#endif\n");
+        }
+        json.append("  \"end\": 0\n}\n");
+        writeString(new File(projectDir, "src/main/resources/large.json"), json.toString());
+    }
+
+    private void writeJavaFile(int i, int change) throws IOException {
+        writeString(new File(projectDir, "src/main/java/perf/JavaType" + i + ".java"), "package perf;\n\n" + source("public class JavaType" + i, i, change) + "\n");
+    }
+
+    /**
+     * @return a class with deeply nested if-statements and references to remapped types
+     */
+    private static @NotNull String source(@NotNull String declaration, int i, int change) {
+        StringBuilder source = new StringBuilder(declaration).append(" {\n");
+        source.append("    // change ").append(change).append("\n");
+        for (int depth = 0; depth < NESTING; depth++) {
+            source.append("    //#if mc >= ").append(11900 + depth).append("\n");
+            source.append("    // perf.old.Type").append((i + depth) % REMAP_ENTRIES).append(" is used at depth ").append(depth).append("\n");
+        }
+        for (int depth = NESTING - 1; depth >= 0; depth--) {
+            source.append("    //#else\n");
+            source.append("    //$$ // perf.old.Type").append((i + depth + 1) % REMAP_ENTRIES).append(" is unused\n");
+            source.append("    //#endif\n");
+        }
+        return source.append("}\n").toString();
+    }
+
+    private static void store(@NotNull Properties properties, @NotNull Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            properties.store(writer, "PreProcessor performance results");
+        }
+    }
+
+    private static void writeString(@NotNull File file, String string) throws IOException {
+        //noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @FunctionalInterface
+    private interface Preparation {
+        void run() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Scenario {
+        BuildResult run() throws IOException;
+    }
+}
@@ -0,0 +1,500 @@
+package dev.tocraft.gradle.preprocess;
+
+import dev.tocraft.gradle.preprocess.data.Keywords;
+import dev.tocraft.gradle.preprocess.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares every engine with the {@link ReferencePreProcessor} and {@link ReferenceReMapper} on random sources.
+ * Vars are only numbers, because booleans and versions are intentionally evaluated differently since typed vars.
+ * For the same reason, a word is never checked for equality with a var, since it's compared as a string now.
+ * Import pruning has no reference, since the original preprocessor never removed imports.
+ */
+class DifferentialTest {
+    private static final long SEED = 0x5EEDL;
+    private static final int CASES = 300;
+    private static final String[] VAR_NAMES = {"a", "b", "c", "mc"};
+    /**
+     * the var sets of a condition error, e.g. 'Unknown var: a (set1, set4) In line: 3'
+     */
+    private static final Pattern VAR_SETS = Pattern.compile(" \\(([^()]*)\\) In line: ");
+    private static final String[] OPERATORS = {"==", "!=", "<=", ">=", "<", ">"};
+    private static final Keywords YAML_KEYWORDS = new Keywords("#if", "#elseif", "#else", "#endif", "#$$");
+    private static final Map<String, Keywords> keywordsMap = Collections.singletonMap("yml", YAML_KEYWORDS);
+    private static final Map<String, String> remap = new LinkedHashMap<String, String>() {
+        {
+            put("Foo", "Bar");
+            put("net.old.Api", "net.neu.Api");
+        }
+    };
+
+    @Test
+    void testConvertSource() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < CASES; i++) {
+            Case c = new Case(random);
+            for (boolean removeComments : new boolean[]{false, true}) {
+                ReferencePreProcessor reference = new ReferencePreProcessor(removeComments, c.vars, keywordsMap);
+                PreProcessor preProcessor = new PreProcessor(removeComments, c.vars, keywordsMap);
+                // the chunks are small, so even short files are preprocessed in parallel
+                PreProcessor parallel = new PreProcessor(removeComments, c.vars, keywordsMap).setParallelThreshold(8);
+
+                ThrowingSupplier<List<String>> expected = () -> reference.convertSource(c.lines, c.fileName);
+                assertMatches(c, expected, () -> preProcessor.convertSource(c.lines, c.fileName));
+                assertMatches(c, expected, () -> parallel.convertSource(c.lines, c.fileName));
+
+                ThrowingSupplier<List<String>> expectedRemapped = () -> new ReferenceReMapper(remap).convertSource(reference.convertSource(c.lines, c.fileName));
+                assertMatches(c, expectedRemapped, () -> preProcessor.convertSource(c.lines, c.fileName, new ReMapper(remap)));
+                assertMatches(c, expectedRemapped, () -> parallel.convertSource(c.lines, c.fileName, new ReMapper(remap)));
+            }
+        }
+    }
+
+    @Test
+    void testEvalExpression() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < CASES * 10; i++) {
+            Map<String, Object> vars = randomVars(random);
+            String condition = randomCondition(random, vars);
+            ReferencePreProcessor reference = new ReferencePreProcessor(false, vars, keywordsMap);
+            PreProcessor preProcessor = new PreProcessor(vars);
+
+            Boolean expected;
+            try {
+                expected = reference.evalExpression(condition);
+            } catch (ParseException e) {
+                expected = null;
+            }
+            try {
+                assertEquals(expected, preProcessor.evalExpression(condition), condition + " with " + vars);
+            } catch (ParseException e) {
+                assertNull(expected, condition + " with " + vars + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    void testConvertFile(@TempDir Path dir) throws IOException {
+        Random random = new Random(SEED);
+        for (int i = 0; i < CASES; i++) {
+            Case c = new Case(random);
+            Path in = dir.resolve("in" + i).resolve(c.fileName);
+            Path out = dir.resolve("out" + i).resolve(c.fileName);
+            Files.createDirectories(in.getParent());
+            Files.write(in, c.content().getBytes(StandardCharsets.UTF_8));
+
+            ReferencePreProcessor reference = new ReferencePreProcessor(false, c.vars, keywordsMap);
+            PreProcessor preProcessor = new PreProcessor(c.vars, keywordsMap);
+            // remap keys which aren't in any file, so files without directives take the byte-level path
+            Map<String, String> map = random.nextBoolean() ? remap : Collections.singletonMap("Missing", "Found");
+
+            ThrowingSupplier<List<String>> expected = () -> new ReferenceReMapper(map).convertSource(reference.convertSource(Files.readAllLines(in), c.fileName));
+            assertMatches(c, () -> join(expected.get()), () -> {
+                preProcessor.convertFile(new ReMapper(map), in.toFile(), out.toFile());
+                return new String(Files.readAllBytes(out), StandardCharsets.UTF_8);
+            });
+            assertMatches(c, expected, () -> preProcessor.convertFile(new ReMapper(map), in.toFile()));
+        }
+    }
+
+    @Test
+    void testConvertTree(@TempDir Path dir) throws IOException, InterruptedException {
+        Random random = new Random(SEED);
+        Map<String, Object> vars = randomVars(random);
+        ReferencePreProcessor reference = new ReferencePreProcessor(false, vars, keywordsMap);
+        Path in = dir.resolve("in");
+        Map<Path, String> expected = new HashMap<>();
+        for (int i = 0; i < CASES; i++) {
+            Case c = new Case(random);
+            try {
+                reference.convertSource(c.lines, c.fileName);
+            } catch (ParseException e) {
+                // a single broken file fails the whole tree
+                continue;
+            }
+            Path relPath = dir.getFileSystem().getPath("pkg" + i % 7, i + c.fileName);
+            Files.createDirectories(in.resolve(relPath).getParent());
+            Files.write(in.resolve(relPath), c.content().getBytes(StandardCharsets.UTF_8));
+            expected.put(relPath, join(new ReferenceReMapper(remap).convertSource(reference.convertSource(Files.readAllLines(in.resolve(relPath)), c.fileName))));
+        }
+
+        Path out = dir.resolve("out");
+        PreProcessor preProcessor = new PreProcessor(vars, keywordsMap);
+        assertEquals(expected.size(), preProcessor.convertTree(Collections.singletonList(in), out, new ConvertOptions().setReMapper(new ReMapper(remap)).setQueueCapacity(4)));
+        for (Map.Entry<Path, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), new String(Files.readAllBytes(out.resolve(entry.getKey())), StandardCharsets.UTF_8), entry.getKey().toString());
+        }
+    }
+
+    @Test
+    void testIdentifierReMapper() {
+        Random random = new Random(SEED);
+        // the keys are whole identifiers and dotted names in every case, so they are replaced like the regexes
+        ReMapper reMapper = new ReMapper(remap, true, true);
+        for (int i = 0; i < CASES; i++) {
+            Case c = new Case(random);
+            ReferencePreProcessor reference = new ReferencePreProcessor(false, c.vars, keywordsMap);
+            PreProcessor preProcessor = new PreProcessor(c.vars, keywordsMap);
+            assertMatches(c, () -> new ReferenceReMapper(remap).convertSource(reference.convertSource(c.lines, c.fileName)), () -> preProcessor.convertSource(c.lines, c.fileName, reMapper));
+        }
+    }
+
+    @Test
+    void testVarMatrix() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < CASES; i++) {
+            Case c = new Case(random);
+            // more than 64 var sets, so the matrix uses multiple words.
+            // Every var set has the same vars, so no condition compares a word with a var
+            Map<String, Map<String, Object>> varSets = new LinkedHashMap<>();
+            for (int j = 0; j < 70; j++) {
+                Map<String, Object> vars = new HashMap<>();
+                for (String name : c.vars.keySet()) {
+                    vars.put(name, random.nextBoolean() ? random.nextInt(5) - 1 : String.valueOf(random.nextInt(5) - 1));
+                }
+                varSets.put("set" + j, vars);
+            }
+
+            List<ParseException> errors = new VarMatrix(varSets, keywordsMap).validate(ParsedSource.parse(c.lines, c.keywords), c.fileName);
+            Set<String> failed = failedVarSets(errors, varSets.keySet());
+            for (Map.Entry<String, Map<String, Object>> varSet : varSets.entrySet()) {
+                boolean expected;
+                try {
+                    new ReferencePreProcessor(false, varSet.getValue(), keywordsMap).convertSource(c.lines, c.fileName);
+                    expected = false;
+                } catch (ParseException e) {
+                    expected = true;
+                }
+                assertEquals(expected, failed.contains(varSet.getKey()), varSet.getKey() + " of " + c + "\n" + errors);
+            }
+        }
+    }
+
+    @Test
+    void testOmitInactiveFiles(@TempDir Path dir) throws IOException {
+        Random random = new Random(SEED);
+        for (int i = 0; i < CASES; i++) {
+            Case c = new Case(random);
+            if (!c.fileName.endsWith(".java")) {
+                continue;
+            }
+            Path in = dir.resolve("in" + i).resolve(c.fileName);
+            Path out = dir.resolve("out" + i).resolve(c.fileName);
+            Files.createDirectories(in.getParent());
+            Files.write(in, c.content().getBytes(StandardCharsets.UTF_8));
+            List<String> expected;
+            try {
+                expected = new ReferencePreProcessor(false, c.vars, keywordsMap).convertSource(Files.readAllLines(in), c.fileName);
+            } catch (ParseException e) {
+                continue;
+            }
+
+            new PreProcessor(c.vars, keywordsMap).setOmitInactiveFiles(true).convertFile(new ReMapper(Collections.emptyMap()), in.toFile(), out.toFile());
+            // the generated files have no strings or block comments, so a file without code only has line comments and blank lines
+            boolean omitted = expected.stream().map(String::trim).allMatch(line -> line.isEmpty() || line.startsWith("//"));
+            assertEquals(omitted, !Files.exists(out), c.toString());
+        }
+    }
+
+    @Test
+    void testConvertArchive(@TempDir Path dir) throws IOException {
+        Random random = new Random(SEED);
+        Map<String, Object> vars = randomVars(random);
+        ReferencePreProcessor reference = new ReferencePreProcessor(false, vars, keywordsMap);
+        Path in = dir.resolve("in.jar");
+        Map<String, List<String>> expected = new HashMap<>();
+        try (FileSystem zip = FileSystems.newFileSystem(URI.create("jar:" + in.toUri()), Collections.singletonMap("create", "true"))) {
+            for (int i = 0; i < CASES; i++) {
+                Case c = new Case(random);
+                // the lines like Files#readAllLines reads them, since the entries are compared with it
+                List<String> lines = new BufferedReader(new StringReader(c.content())).lines().collect(Collectors.toList());
+                try {
+                    expected.put("pkg" + i % 7 + "/" + i + c.fileName, new ReferenceReMapper(remap).convertSource(reference.convertSource(lines, c.fileName)));
+                } catch (ParseException e) {
+                    // a single broken entry fails the whole archive
+                    continue;
+                }
+                Path entry = zip.getPath("pkg" + i % 7, i + c.fileName);
+                Files.createDirectories(entry.getParent());
+                Files.write(entry, c.content().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        Path out = dir.resolve("out.jar");
+        new PreProcessor(vars, keywordsMap).convertArchive(new ReMapper(remap), in, out);
+        try (FileSystem zip = FileSystems.newFileSystem(out, (ClassLoader) null)) {
+            for (Map.Entry<String, List<String>> entry : expected.entrySet()) {
+                assertEquals(entry.getValue(), Files.readAllLines(zip.getPath(entry.getKey())), entry.getKey());
+            }
+        }
+    }
+
+    @Test
+    void testImpactIndex(@TempDir Path dir) throws IOException {
+        Random random = new Random(SEED);
+        ImpactIndex index = ImpactIndex.load(dir.resolve("index.bin"));
+        for (int i = 0; i < CASES; i++) {
+            Case c = new Case(random);
+            // the proposed vars have the same names, so no condition compares a word with a var
+            Map<String, Object> proposed = new HashMap<>();
+            for (String name : c.vars.keySet()) {
+                proposed.put(name, random.nextInt(5) - 1);
+            }
+            Path file = dir.resolve(i + c.fileName);
+            Files.write(file, c.content().getBytes(StandardCharsets.UTF_8));
+            List<String> lines = Files.readAllLines(file);
+            List<String> current;
+            List<String> next;
+            try {
+                current = new ReferencePreProcessor(false, c.vars, keywordsMap).convertSource(lines, c.fileName);
+                next = new ReferencePreProcessor(false, proposed, keywordsMap).convertSource(lines, c.fileName);
+            } catch (ParseException e) {
+                continue;
+            }
+
+            int changed = 0;
+            for (int j = 0; j < current.size(); j++) {
+                if (!current.get(j).equals(next.get(j))) {
+                    changed++;
+                }
+            }
+            ImpactIndex.FileEntry entry = index.update(file, c.keywords);
+            assertNotNull(entry, c.toString());
+            int counted = entry.countChangedLines(new PreProcessor(c.vars, keywordsMap), new PreProcessor(proposed, keywordsMap), c.fileName);
+            // the index counts every line of a section, even the ones which stay the same, e.g. lines indented less than their directive
+            assertTrue(counted >= changed, counted + " < " + changed + " for " + c + " with " + proposed);
+            if (changed == 0) {
+                continue;
+            }
+            assertTrue(counted > 0, c + " with " + proposed);
+        }
+    }
+
+    /**
+     * Both suppliers must either return the same lines or throw a {@link ParseException}
+     */
+    private static <T> void assertMatches(Case c, ThrowingSupplier<T> expected, ThrowingSupplier<T> actual) {
+        T expectedResult;
+        try {
+            expectedResult = expected.get();
+        } catch (ParseException e) {
+            assertThrows(ParseException.class, actual::get, c.toString());
+            return;
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+        try {
+            assertEquals(expectedResult, actual.get(), c.toString());
+        } catch (ParseException e) {
+            fail(c + " failed: " + e.getMessage());
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * @return the names of the var sets, which have an error. Errors in the structure fail every var set
+     */
+    private static Set<String> failedVarSets(List<ParseException> errors, Set<String> names) {
+        Set<String> failed = new HashSet<>();
+        for (ParseException error : errors) {
+            Matcher matcher = VAR_SETS.matcher(error.getMessage());
+            if (matcher.find()) {
+                failed.addAll(Arrays.asList(matcher.group(1).split(", ")));
+            } else {
+                failed.addAll(names);
+            }
+        }
+        return failed;
+    }
+
+    private static String join(List<String> lines) {
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static Map<String, Object> randomVars(Random random) {
+        Map<String, Object> vars = new HashMap<>();
+        for (String name : VAR_NAMES) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    vars.put(name, random.nextInt(5) - 1);
+                    break;
+                case 1:
+                    vars.put(name, String.valueOf(random.nextInt(5) - 1));
+                    break;
+                default:
+                    // the var isn't set
+            }
+        }
+        return vars;
+    }
+
+    private static String randomCondition(Random random, Map<String, Object> vars) {
+        int parts = 1 + (random.nextInt(4) == 0 ? 1 + random.nextInt(2) : 0);
+        String joiner = random.nextBoolean() ? "&&" : "||";
+        StringBuilder condition = new StringBuilder();
+        for (int i = 0; i < parts; i++) {
+            if (i > 0) {
+                condition.append(random.nextBoolean() ? " " + joiner + " " : joiner);
+            }
+            String operand = randomOperand(random);
+            if (random.nextInt(3) == 0) {
+                // a bare var, which may not be set
+                condition.append(random.nextInt(8) == 0 ? "unknown" : VAR_NAMES[random.nextInt(VAR_NAMES.length)]);
+            } else {
+                String space = random.nextInt(4) == 0 ? "" : " ";
+                String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+                String other = randomOperand(random);
+                if ((operator.equals("==") || operator.equals("!=")) && (isWord(operand, vars) && vars.containsKey(other) || isWord(other, vars) && vars.containsKey(operand))) {
+                    // the reference can't compare words
+                    other = String.valueOf(random.nextInt(5) - 1);
+                    operand = vars.containsKey(operand) ? operand : String.valueOf(random.nextInt(5) - 1);
+                }
+                condition.append(operand).append(space).append(operator).append(space).append(other);
+            }
+        }
+        return condition.toString();
+    }
+
+    private static String randomOperand(Random random) {
+        int kind = random.nextInt(10);
+        if (kind < 5) {
+            return VAR_NAMES[random.nextInt(VAR_NAMES.length)];
+        } else if (kind < 9) {
+            return String.valueOf(random.nextInt(5) - 1);
+        } else {
+            return "unknown";
+        }
+    }
+
+    /**
+     * @return whether the operand is neither a set var nor a number
+     */
+    private static boolean isWord(String operand, Map<String, Object> vars) {
+        return !vars.containsKey(operand) && !operand.matches("-?\\d+");
+    }
+
+    @FunctionalInterface
+    private interface ThrowingSupplier<T> {
+        T get() throws Exception;
+    }
+
+    /**
+     * A random source file with random vars
+     */
+    private static final class Case {
+        private final Map<String, Object> vars;
+        private final String fileName;
+        private final Keywords keywords;
+        private final List<String> lines = new ArrayList<>();
+        private final boolean trailingNewLine;
+
+        private Case(Random random) {
+            this.vars = randomVars(random);
+            boolean yaml = random.nextInt(4) == 0;
+            this.fileName = yaml ? "test.yml" : "Test.java";
+            this.keywords = yaml ? YAML_KEYWORDS : Keywords.DEFAULT_KEYWORDS;
+            this.trailingNewLine = random.nextInt(5) != 0;
+            // some files don't contain any directive
+            if (random.nextInt(5) == 0) {
+                addCode(random, 0);
+            } else {
+                addBlock(random, 0, 0);
+            }
+            // some files are broken
+            if (!lines.isEmpty() && random.nextInt(10) == 0) {
+                lines.remove(random.nextInt(lines.size()));
+            }
+        }
+
+        private void addBlock(Random random, int depth, int indentation) {
+            int statements = 1 + random.nextInt(4);
+            for (int i = 0; i < statements; i++) {
+                if (depth < 3 && random.nextInt(3) == 0) {
+                    int directiveIndent = Math.max(0, indentation + random.nextInt(5) - 2);
+                    lines.add(indent(directiveIndent) + keywords.IF() + " " + randomCondition(random, vars));
+                    addBlock(random, depth + 1, indentation + 4);
+                    int elseIfs = random.nextInt(3);
+                    for (int j = 0; j < elseIfs; j++) {
+                        lines.add(indent(directiveIndent) + keywords.ELSEIF() + " " + randomCondition(random, vars));
+                        addBlock(random, depth + 1, indentation + 4);
+                    }
+                    if (random.nextBoolean()) {
+                        lines.add(indent(directiveIndent) + keywords.ELSE());
+                        addBlock(random, depth + 1, indentation + 4);
+                    }
+                    lines.add(indent(directiveIndent) + keywords.ENDIF());
+                } else {
+                    addCode(random, indentation);
+                }
+            }
+        }
+
+        private void addCode(Random random, int indentation) {
+            int amount = 1 + random.nextInt(4);
+            for (int i = 0; i < amount; i++) {
+                String indent = indent(Math.max(0, indentation + random.nextInt(5) - 2));
+                switch (random.nextInt(9)) {
+                    case 0:
+                        lines.add("");
+                        break;
+                    case 1:
+                        // whitespace only
+                        lines.add(indent);
+                        break;
+                    case 2:
+                        // already commented out
+                        lines.add(indent + keywords.EVAL() + " Foo foo = new Foo();");
+                        break;
+                    case 3:
+                        lines.add(indent + keywords.EVAL() + "int x = 1;");
+                        break;
+                    case 4:
+                        // trailing whitespace
+                        lines.add(indent + "net.old.Api.call();  ");
+                        break;
+                    case 5:
+                        lines.add("\t" + indent + "tab();");
+                        break;
+                    default:
+                        lines.add(indent + "int value" + random.nextInt(100) + " = " + random.nextInt(10) + ";");
+                }
+            }
+        }
+
+        private String content() {
+            String content = String.join("\n", lines);
+            return trailingNewLine && !lines.isEmpty() ? content + "\n" : content;
+        }
+
+        private static String indent(int n) {
+            return new String(new char[n]).replace("\0", " ");
+        }
+
+        @Override
+        public String toString() {
+            return fileName + " with " + vars + ":\n" + String.join("\n", lines);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package dev.tocraft.gradle.preprocess;
+
+import dev.tocraft.gradle.preprocess.data.Keywords;
+import dev.tocraft.gradle.preprocess.util.ParsedFileCache;
+import dev.tocraft.gradle.preprocess.util.ParsedSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParsedFileCacheTest {
+    @Test
+    void testCache(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("Test.java");
+        Files.write(file, "//#if a\ncode\n//#endif\n".getBytes(StandardCharsets.UTF_8));
+        // pretend the file is old, so it doesn't need to be verified by its content
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+
+        ParsedSource source = ParsedFileCache.load(file, Keywords.DEFAULT_KEYWORDS);
+        assertNotNull(source);
+        assertTrue(source.hasDirectives());
+        assertSame(source, ParsedFileCache.load(file, Keywords.DEFAULT_KEYWORDS));
+
+        // different keywords reuse the lines
+        ParsedSource other = ParsedFileCache.load(file, new Keywords("#if", "#elseif", "#else", "#endif", "#$$"));
+        assertNotNull(other);
+        assertSame(source.getLines(), other.getLines());
+        assertFalse(other.hasDirectives());
+
+        Files.write(file, "changed\n".getBytes(StandardCharsets.UTF_8));
+        ParsedSource changed = ParsedFileCache.load(file, Keywords.DEFAULT_KEYWORDS);
+        assertNotNull(changed);
+        assertEquals(Arrays.asList("changed"), changed.getLines());
+
+        // racy files are verified by their content
+        Files.write(file, "racy\n".getBytes(StandardCharsets.UTF_8));
+        FileTime time = Files.getLastModifiedTime(file);
+        assertEquals(Arrays.asList("racy"), ParsedFileCache.load(file, Keywords.DEFAULT_KEYWORDS).getLines());
+        Files.write(file, "same\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, time);
+        assertEquals(Arrays.asList("same"), ParsedFileCache.load(file, Keywords.DEFAULT_KEYWORDS).getLines());
+
+        // binary files
+        Path binary = dir.resolve("test.png");
+        Files.write(binary, new byte[]{(byte) 0xff, 0, 1});
+        assertNull(ParsedFileCache.load(binary, Keywords.DEFAULT_KEYWORDS));
+        assertNull(ParsedFileCache.load(binary, Keywords.DEFAULT_KEYWORDS));
+    }
+}
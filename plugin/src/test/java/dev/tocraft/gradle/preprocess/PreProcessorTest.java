@@ -3,13 +3,43 @@
  */
 package dev.tocraft.gradle.preprocess;
 
+import dev.tocraft.gradle.preprocess.data.Keywords;
+import dev.tocraft.gradle.preprocess.util.BufferPool;
+import dev.tocraft.gradle.preprocess.util.ConvertOptions;
+import dev.tocraft.gradle.preprocess.util.CostHistory;
+import dev.tocraft.gradle.preprocess.util.ImpactIndex;
+import dev.tocraft.gradle.preprocess.util.IoThrottle;
 import dev.tocraft.gradle.preprocess.util.ParseException;
+import dev.tocraft.gradle.preprocess.util.ParsedSource;
 import dev.tocraft.gradle.preprocess.util.PreProcessor;
+import dev.tocraft.gradle.preprocess.util.OutputStore;
+import dev.tocraft.gradle.preprocess.util.ReMapper;
+import dev.tocraft.gradle.preprocess.util.VarMatrix;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -91,6 +121,47 @@ class PreProcessorTest {
         assertFalse(preProcessor.evalExpression("zero || zero && one || zero"));
     }
 
+    @Test
+    void testTypedVars() {
+        Map<String, Object> typedVars = new HashMap<>();
+        typedVars.put("mc", "1.20.1");
+        typedVars.put("fabric", true);
+        typedVars.put("forge", "false");
+        typedVars.put("count", 3L);
+        typedVars.put("loader", "neoforge");
+        typedVars.put("lazy", (Callable<Object>) () -> 5);
+        PreProcessor typed = new PreProcessor(typedVars);
+
+        // versions are compared by their parts
+        assertTrue(typed.evalExpression("mc > 1.20"));
+        assertTrue(typed.evalExpression("mc == 1.20.1"));
+        assertFalse(typed.evalExpression("mc >= 1.21"));
+        assertTrue(typed.evalExpression("mc < 2"));
+        // booleans
+        assertTrue(typed.evalExpression("fabric"));
+        assertFalse(typed.evalExpression("forge"));
+        assertTrue(typed.evalExpression("fabric == true"));
+        assertTrue(typed.evalExpression("count > 2"));
+        assertTrue(typed.evalExpression("lazy == 5"));
+        // strings can only be checked for equality, also with words which aren't vars
+        assertTrue(typed.evalExpression("loader == neoforge"));
+        assertTrue(typed.evalExpression("forge == loader || neoforge == loader"));
+        assertTrue(typed.evalExpression("loader != quilt"));
+        assertThrows(ParseException.class, () -> typed.evalExpression("loader > 1"));
+        assertThrows(ParseException.class, () -> typed.evalExpression("loader < quilt"));
+        // unknown vars in comparisons are errors
+        ParseException exception = assertThrows(ParseException.class, () -> typed.evalExpression("unknown == 1", 4, "Test.java"));
+        assertTrue(exception.getMessage().contains("unknown"));
+        assertTrue(exception.getMessage().contains("In line: 4"));
+        assertFalse(typed.evalExpression("unknown"));
+        // unknown vars are only errors if they are reached
+        assertTrue(typed.evalExpression("fabric || unknown == 1"));
+        assertFalse(typed.evalExpression("forge && unknown == 1"));
+        // numbers larger than an int are compared with versions, too
+        assertTrue(typed.evalExpression("mc < 4294967296"));
+        assertTrue(typed.evalExpression("4294967296.1 > 4294967296"));
+    }
+
     @Test
     void testConvertSource() {
         // unexpected endif
@@ -774,4 +845,565 @@ class PreProcessorTest {
             }
         }));
     }
+
+    @Test
+    void testParallelChunks() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            lines.add("    //#if " + (i % 3 == 0 ? "zero" : "one"));
+            lines.add("    code" + i);
+            lines.add("    //#if two");
+            lines.add("        //$$ nested" + i);
+            lines.add("    //#endif");
+            lines.add("    //#else");
+            lines.add("    other" + i);
+            lines.add("    //#endif");
+            lines.add("outside" + i);
+        }
+
+        PreProcessor parallel = new PreProcessor(vars).setParallelThreshold(100);
+        assertEquals(preProcessor.convertSource(lines), parallel.convertSource(lines));
+
+        // line numbers must stay correct in later chunks
+        lines.set(14994, "    //#ifone");
+        ParseException exception = assertThrows(ParseException.class, () -> parallel.convertSource(lines));
+        assertEquals(assertThrows(ParseException.class, () -> preProcessor.convertSource(lines)).getMessage(), exception.getMessage());
+        assertTrue(exception.getMessage().contains("14995"));
+    }
+
+    @Test
+    void testConvertFile(@TempDir Path dir) throws IOException {
+        ReMapper reMapper = new ReMapper(new HashMap<>());
+
+        Path text = dir.resolve("Test.java");
+        Files.write(text, "//#if zero\r\ncode\r//#endif\nlast".getBytes(StandardCharsets.UTF_8));
+        preProcessor.convertFile(reMapper, text.toFile(), dir.resolve("out/Test.java").toFile());
+        assertEquals("//#if zero\n//$$ code\n//#endif\nlast\n", new String(Files.readAllBytes(dir.resolve("out/Test.java")), StandardCharsets.UTF_8));
+
+        // binary files are copied
+        byte[] bytes = {(byte) 0x89, 'P', 'N', 'G', (byte) 0xff, 0, '\n'};
+        Path binary = dir.resolve("test.png");
+        Files.write(binary, bytes);
+        preProcessor.convertFile(reMapper, binary.toFile(), dir.resolve("out/test.png").toFile());
+        assertArrayEquals(bytes, Files.readAllBytes(dir.resolve("out/test.png")));
+    }
+
+    @Test
+    void testConvertUnchangedFile(@TempDir Path dir) throws IOException {
+        Map<String, String> map = new HashMap<>();
+        map.put("old.Name", "new.Name");
+        ReMapper reMapper = new ReMapper(map);
+        String padding = "some code without any directive, long enough to be scanned in words\n";
+
+        // files without directives and remap keys are copied
+        Path unchanged = dir.resolve("Unchanged.java");
+        Files.write(unchanged, (padding + padding).getBytes(StandardCharsets.UTF_8));
+        preProcessor.convertFile(reMapper, unchanged.toFile(), dir.resolve("out/Unchanged.java").toFile());
+        assertEquals(padding + padding, new String(Files.readAllBytes(dir.resolve("out/Unchanged.java")), StandardCharsets.UTF_8));
+
+        // the remap key is found anywhere in the file
+        Path remapped = dir.resolve("Remapped.java");
+        Files.write(remapped, (padding + "  old.Name" + padding).getBytes(StandardCharsets.UTF_8));
+        preProcessor.convertFile(reMapper, remapped.toFile(), dir.resolve("out/Remapped.java").toFile());
+        assertEquals(padding + "  new.Name" + padding, new String(Files.readAllBytes(dir.resolve("out/Remapped.java")), StandardCharsets.UTF_8));
+
+        // the regex key also matches other chars than the dot
+        Path regex = dir.resolve("Regex.java");
+        Files.write(regex, (padding + "old_Name\n").getBytes(StandardCharsets.UTF_8));
+        preProcessor.convertFile(reMapper, regex.toFile(), dir.resolve("out/Regex.java").toFile());
+        assertEquals(padding + "new.Name\n", new String(Files.readAllBytes(dir.resolve("out/Regex.java")), StandardCharsets.UTF_8));
+
+        // line endings are still normalized
+        Path crlf = dir.resolve("Crlf.java");
+        Files.write(crlf, (padding + "last\r\nline").getBytes(StandardCharsets.UTF_8));
+        preProcessor.convertFile(reMapper, crlf.toFile(), dir.resolve("out/Crlf.java").toFile());
+        assertEquals(padding + "last\nline\n", new String(Files.readAllBytes(dir.resolve("out/Crlf.java")), StandardCharsets.UTF_8));
+
+        // directives after the first words are found
+        Path directive = dir.resolve("Directive.java");
+        Files.write(directive, (padding + "//#if zero\ncode\n//#endif\n").getBytes(StandardCharsets.UTF_8));
+        preProcessor.convertFile(reMapper, directive.toFile(), dir.resolve("out/Directive.java").toFile());
+        assertEquals(padding + "//#if zero\n//$$ code\n//#endif\n", new String(Files.readAllBytes(dir.resolve("out/Directive.java")), StandardCharsets.UTF_8));
+
+        // the inline resources copy the same files and get the same lines for the others
+        assertNull(preProcessor.convertChangedFile(reMapper, unchanged.toFile()));
+        assertEquals(Arrays.asList(padding.trim(), "last", "line"), preProcessor.convertChangedFile(reMapper, crlf.toFile()));
+        Path latin = dir.resolve("Latin.java");
+        Files.write(latin, "//#if zero\nGr\u00fc\u00dfe\n//#endif\n".getBytes(StandardCharsets.ISO_8859_1));
+        assertNull(preProcessor.convertChangedFile(reMapper, latin.toFile()));
+
+        // pruning imports may change files without directives
+        Path imports = dir.resolve("Imports.java");
+        Files.write(imports, "import java.util.List;\nclass Imports {}\n".getBytes(StandardCharsets.UTF_8));
+        new PreProcessor(new HashMap<>()).setPruneImports(true).convertFile(reMapper, imports.toFile(), dir.resolve("out/Imports.java").toFile());
+        assertEquals("\nclass Imports {}\n", new String(Files.readAllBytes(dir.resolve("out/Imports.java")), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testConvertTree(@TempDir Path dir) throws IOException, InterruptedException {
+        Path first = dir.resolve("first");
+        Path second = dir.resolve("second");
+        for (int i = 0; i < 200; i++) {
+            Path file = second.resolve("pkg" + (i % 7) + "/File" + i + ".java");
+            Files.createDirectories(file.getParent());
+            Files.write(file, ("//#if one\nfile" + i + "\n//#else\nnot" + i + "\n//#endif\n").getBytes(StandardCharsets.UTF_8));
+        }
+        Files.createDirectories(first.resolve("pkg0"));
+        Files.write(first.resolve("pkg0/File0.java"), "first\n".getBytes(StandardCharsets.UTF_8));
+        byte[] bytes = {(byte) 0x89, 'P', 'N', 'G', (byte) 0xff, 0, '\n'};
+        Files.write(first.resolve("test.png"), bytes);
+
+        Map<String, String> map = new HashMap<>();
+        map.put("file", "remapped");
+        ConvertOptions options = new ConvertOptions().setReMapper(new ReMapper(map)).setQueueCapacity(4).setIoThreads(2).setCpuThreads(3).setVirtualThreads(true);
+        Path out = dir.resolve("out");
+        assertEquals(201, preProcessor.convertTree(Arrays.asList(first, second), out, options));
+
+        // the first root wins
+        assertEquals("first\n", new String(Files.readAllBytes(out.resolve("pkg0/File0.java")), StandardCharsets.UTF_8));
+        assertEquals("//#if one\nremapped42\n//#else\n//$$ not42\n//#endif\n", new String(Files.readAllBytes(out.resolve("pkg0/File42.java")), StandardCharsets.UTF_8));
+        assertArrayEquals(bytes, Files.readAllBytes(out.resolve("test.png")));
+
+        // all errors are reported
+        Files.write(second.resolve("pkg1/File1.java"), "//#if one\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(second.resolve("pkg2/File2.java"), "//#endif\n".getBytes(StandardCharsets.UTF_8));
+        ParseException exception = assertThrows(ParseException.class, () -> preProcessor.convertTree(Arrays.asList(first, second), out, options));
+        assertEquals(1, exception.getSuppressed().length);
+    }
+
+    @Test
+    void testConvertTreeFailures(@TempDir Path dir) throws IOException {
+        Path in = dir.resolve("in");
+        for (int i = 0; i < 50; i++) {
+            Path file = in.resolve("pkg" + (i % 3) + "/File" + i + ".java");
+            Files.createDirectories(file.getParent());
+            Files.write(file, "//#if one\nint a;\n//#endif\n".getBytes(StandardCharsets.UTF_8));
+        }
+        // an error in a stage doesn't stop its thread, so the other stages don't wait forever
+        ReMapper broken = new ReMapper(new HashMap<>()) {
+            @Override
+            public ReMapper forFile(String fileName) {
+                if (fileName.startsWith("File1")) {
+                    throw new StackOverflowError(fileName);
+                }
+                return super.forFile(fileName);
+            }
+        };
+        ConvertOptions options = new ConvertOptions().setReMapper(broken).setQueueCapacity(2).setIoThreads(1).setCpuThreads(2);
+        StackOverflowError error = assertThrows(StackOverflowError.class, () -> preProcessor.convertTree(Collections.singletonList(in), dir.resolve("out"), options));
+        // File1 and File10 to File19
+        assertEquals(10, error.getSuppressed().length);
+        assertTrue(Files.exists(dir.resolve("out/pkg2/File2.java")));
+
+        // a missing root doesn't stop the other roots
+        Path out = dir.resolve("out2");
+        assertThrows(NoSuchFileException.class, () -> preProcessor.convertTree(Arrays.asList(dir.resolve("missing"), in), out, new ConvertOptions()));
+        assertEquals("//#if one\nint a;\n//#endif\n", new String(Files.readAllBytes(out.resolve("pkg1/File49.java")), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testConvertArchive(@TempDir Path dir) throws IOException {
+        Path in = dir.resolve("in.jar");
+        byte[] unchanged = "no directives in here\n".getBytes(StandardCharsets.UTF_8);
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(in))) {
+            zip.putNextEntry(new ZipEntry("assets/test.json"));
+            zip.write("//#if zero\n\"a\": 1\n//#endif\n".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("assets/unchanged.txt"));
+            zip.write(unchanged);
+            zip.closeEntry();
+        }
+
+        Path out = dir.resolve("out/out.jar");
+        assertEquals(1, preProcessor.convertArchive(new ReMapper(new HashMap<>()), in, out));
+        try (ZipFile original = new ZipFile(in.toFile()); ZipFile converted = new ZipFile(out.toFile())) {
+            assertEquals("//#if zero\n//$$ \"a\": 1\n//#endif\n", new String(readAll(converted, "assets/test.json"), StandardCharsets.UTF_8));
+            assertArrayEquals(unchanged, readAll(converted, "assets/unchanged.txt"));
+            // unchanged entries keep their compressed bytes
+            assertEquals(original.getEntry("assets/unchanged.txt").getCompressedSize(), converted.getEntry("assets/unchanged.txt").getCompressedSize());
+        }
+        // the input isn't changed
+        try (ZipFile original = new ZipFile(in.toFile())) {
+            assertTrue(new String(readAll(original, "assets/test.json"), StandardCharsets.UTF_8).contains("\n\"a\": 1"));
+        }
+    }
+
+    private static byte[] readAll(ZipFile zip, String name) throws IOException {
+        try (InputStream stream = zip.getInputStream(zip.getEntry(name))) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read = stream.read(buffer); read >= 0; read = stream.read(buffer)) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    @Test
+    void testImpactIndex(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("Test.java");
+        Files.write(file, Arrays.asList("a", "//#if zero", "b", "c", "//#elseif one", "d", "//#else", "e", "//#endif", "f"), StandardCharsets.UTF_8);
+        // not modified right before it's indexed, so the modification time can be trusted
+        FileTime lastModified = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        Files.setLastModifiedTime(file, lastModified);
+
+        Map<String, Object> proposedVars = new HashMap<>(vars);
+        proposedVars.put("zero", "1");
+        PreProcessor proposed = new PreProcessor(proposedVars);
+
+        Path indexFile = dir.resolve("index.bin");
+        ImpactIndex index = ImpactIndex.load(indexFile);
+        ImpactIndex.FileEntry entry = index.update(file, Keywords.DEFAULT_KEYWORDS);
+        assertNotNull(entry);
+        // "b" and "c" become active and "d" inactive
+        assertEquals(3, entry.countChangedLines(preProcessor, proposed, "Test.java"));
+        assertEquals(0, entry.countChangedLines(preProcessor, preProcessor, "Test.java"));
+        index.save(indexFile);
+
+        // the stored index is used as long as the size and the modification time are the same
+        byte[] content = Files.readAllBytes(file);
+        Arrays.fill(content, (byte) 'x');
+        Files.write(file, content);
+        Files.setLastModifiedTime(file, lastModified);
+        ImpactIndex loaded = ImpactIndex.load(indexFile);
+        ImpactIndex.FileEntry stored = loaded.update(file, Keywords.DEFAULT_KEYWORDS);
+        assertNotNull(stored);
+        assertEquals(3, stored.countChangedLines(preProcessor, proposed, "Test.java"));
+
+        // changed files are parsed again
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified.toMillis() + 10000));
+        ImpactIndex.FileEntry changed = loaded.update(file, Keywords.DEFAULT_KEYWORDS);
+        assertNotNull(changed);
+        assertTrue(changed.isEmpty());
+
+        // files modified right before they were indexed are verified by their content
+        Path racy = dir.resolve("Racy.java");
+        Files.write(racy, Arrays.asList("//#if zero", "b", "//#endif"), StandardCharsets.UTF_8);
+        FileTime racyModified = Files.getLastModifiedTime(racy);
+        assertEquals(1, loaded.update(racy, Keywords.DEFAULT_KEYWORDS).countChangedLines(preProcessor, proposed, "Racy.java"));
+        loaded.save(indexFile);
+        // same size and modification time, but "b" isn't in the if-statement anymore
+        Files.write(racy, Arrays.asList("//#if zero", "//#endif", "b"), StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(racy, racyModified);
+        assertEquals(0, ImpactIndex.load(indexFile).update(racy, Keywords.DEFAULT_KEYWORDS).countChangedLines(preProcessor, proposed, "Racy.java"));
+
+        // corrupt indexes are ignored
+        Files.write(indexFile, new byte[]{1, 2, 3});
+        assertNotNull(ImpactIndex.load(indexFile));
+    }
+
+    @Test
+    void testIoThrottle(@TempDir Path dir) throws IOException, InterruptedException {
+        Path in = dir.resolve("in");
+        for (int i = 0; i < 20; i++) {
+            Path file = in.resolve("pkg" + i % 3).resolve("File" + i + ".java");
+            Files.createDirectories(file.getParent());
+            Files.write(file, "//#if zero\nint a;\n//#endif\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        IoThrottle.configure(1);
+        try {
+            assertEquals(1, IoThrottle.getLimit());
+            // more reading and writing threads than permits
+            assertEquals(20, preProcessor.convertTree(Collections.singletonList(in), dir.resolve("out"), new ConvertOptions().setIoThreads(4)));
+        } finally {
+            IoThrottle.configure(0);
+        }
+        assertEquals(0, IoThrottle.getLimit());
+        assertEquals("//#if zero\n//$$ int a;\n//#endif\n", new String(Files.readAllBytes(dir.resolve("out/pkg1/File7.java")), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testBufferPoolLimit() {
+        long limit = BufferPool.getMemoryLimit();
+        BufferPool.configure(8192, false);
+        try {
+            BufferPool.clear();
+            ByteBuffer leased = BufferPool.acquireBytes(8192);
+            // the leased buffer already uses the whole limit
+            ByteBuffer unpooled = BufferPool.acquireBytes(8192);
+            assertNotSame(leased, unpooled);
+            BufferPool.release(unpooled);
+            BufferPool.release(leased);
+            assertSame(leased, BufferPool.acquireBytes(100));
+            assertNotSame(leased, BufferPool.acquireBytes(100));
+        } finally {
+            BufferPool.configure(limit, false);
+            BufferPool.clear();
+        }
+    }
+
+    @Test
+    void testCostHistory(@TempDir Path dir) throws IOException {
+        File small = dir.resolve("Small.java").toFile();
+        File large = dir.resolve("Large.java").toFile();
+        File slow = dir.resolve("Slow.java").toFile();
+        Files.write(small.toPath(), new byte[10]);
+        Files.write(large.toPath(), new byte[1000]);
+        Files.write(slow.toPath(), new byte[100]);
+
+        // without history, the largest files come first
+        CostHistory history = CostHistory.empty();
+        assertEquals(Arrays.asList(large, slow, small), history.sort(Arrays.asList(small, slow, large)));
+
+        history.record(small, 1000000);
+        history.record(large, 1000);
+        history.record(slow, 100000);
+        Path historyFile = dir.resolve("history/costs.bin");
+        history.save(historyFile);
+
+        // the measured time wins over the size
+        CostHistory loaded = CostHistory.load(historyFile);
+        assertEquals(Arrays.asList(small, slow, large), loaded.sort(Arrays.asList(small, large, slow)));
+
+        // unknown files are estimated with the speed of the known ones
+        File unknown = dir.resolve("Unknown.java").toFile();
+        Files.write(unknown.toPath(), new byte[500]);
+        loaded.retain(Arrays.asList(small, large));
+        assertEquals(Arrays.asList(small, unknown, large), loaded.sort(Arrays.asList(small, large, unknown)));
+
+        // corrupt histories are ignored
+        Files.write(historyFile, new byte[]{1, 2, 3});
+        assertEquals(Arrays.asList(large, small), CostHistory.load(historyFile).sort(Arrays.asList(small, large)));
+    }
+
+    @Test
+    void testValidate() {
+        List<String> lines = new ArrayList<>();
+        lines.add("//#if one");
+        lines.add("//#else");
+        lines.add("//#elseif two");
+        lines.add("//#endif");
+        lines.add("//#endif");
+        lines.add("//#if zero");
+        lines.add("//#elseif one > test");
+        lines.add("//#endif");
+        lines.add("//#if two");
+
+        List<ParseException> errors = preProcessor.validate(ParsedSource.parse(lines, Keywords.DEFAULT_KEYWORDS), "Test.java");
+        assertEquals(4, errors.size());
+        assertTrue(errors.get(0).getMessage().startsWith("elseif after else! In line: 3"));
+        assertTrue(errors.get(1).getMessage().startsWith("endif without If-Statement! In line: 5"));
+        // conditions are checked even if they aren't reached
+        assertTrue(errors.get(2).getMessage().contains("In line: 7"));
+        assertTrue(errors.get(3).getMessage().startsWith("Missing endif! In line: 9"));
+
+        assertEquals(1, preProcessor.validate(ParsedSource.parse(lines.subList(5, 8), Keywords.DEFAULT_KEYWORDS), null).size());
+    }
+
+    @Test
+    void testVarMatrix() {
+        List<String> lines = new ArrayList<>();
+        lines.add("//#if forge");
+        lines.add("//#if forgeVersion >= 47");
+        lines.add("//#endif");
+        lines.add("//#elseif mc >= 1.20 || loader > 1");
+        lines.add("//#endif");
+
+        // more than 64 var sets, so they don't fit into one long
+        Map<String, Map<String, Object>> matrix = new LinkedHashMap<>();
+        for (int i = 0; i < 70; i++) {
+            Map<String, Object> vars = new HashMap<>();
+            vars.put("mc", "1." + (16 + i % 6) + ".1");
+            vars.put("forge", i % 2 == 0);
+            if (i % 4 != 1) {
+                vars.put("forgeVersion", 40 + i % 10);
+            }
+            matrix.put("target" + i, vars);
+        }
+
+        List<ParseException> errors = new VarMatrix(matrix, new HashMap<>()).validate(ParsedSource.parse(lines, Keywords.DEFAULT_KEYWORDS), "Test.java");
+
+        // every var set is reported with the same error the preprocessor would throw for it
+        Map<String, String> reported = new HashMap<>();
+        for (ParseException error : errors) {
+            String message = error.getMessage();
+            String names = message.substring(message.indexOf(" (") + 2, message.indexOf(") In line"));
+            for (String name : names.split(", ")) {
+                assertNull(reported.put(name, message.replace(" (" + names + ")", "")), name);
+            }
+        }
+        for (Map.Entry<String, Map<String, Object>> entry : matrix.entrySet()) {
+            try {
+                new PreProcessor(entry.getValue()).convertSource(lines, "Test.java");
+                assertNull(reported.get(entry.getKey()), entry.getKey());
+            } catch (ParseException e) {
+                assertEquals(e.getMessage(), reported.get(entry.getKey()), entry.getKey());
+            }
+        }
+        // the var sets without forgeVersion stop in line 2, the others without loader in line 4
+        assertEquals(2, errors.size());
+
+        errors = new VarMatrix(Collections.singletonMap("forge", Collections.singletonMap("forge", true)), new HashMap<>()).validate(ParsedSource.parse(lines.subList(0, 3), Keywords.DEFAULT_KEYWORDS), null);
+        assertEquals(2, errors.size());
+        assertTrue(errors.get(0).getMessage().startsWith("Unknown var: forgeVersion (forge) In line: 2"));
+        assertTrue(errors.get(1).getMessage().startsWith("Missing endif! In line: 3"));
+    }
+
+    @Test
+    void testPruneImports() {
+        List<String> lines = new ArrayList<>();
+        lines.add("package test;");
+        lines.add("import java.util.List;");
+        lines.add("import java.util.Map;");
+        lines.add("import java.util.*;");
+        lines.add("import static java.util.Collections.emptyList;");
+        lines.add("import static java.util.Collections.singletonList;");
+        lines.add("import net.example.OldApi;");
+        lines.add("import net.example.Unused;");
+        lines.add("class Test {");
+        lines.add("    // Unused is only mentioned here");
+        lines.add("    String text = \"Unused\";");
+        lines.add("    Map.Entry<String, String> entry;");
+        lines.add("    List<String> list = emptyList();");
+        lines.add("//#if a");
+        lines.add("    OldApi api = new OldApi(singletonList(1));");
+        lines.add("//#endif");
+        lines.add("}");
+
+        List<String> converted = new PreProcessor(false, new HashMap<>(), new HashMap<>()).setPruneImports(true).convertSource(lines, "Test.java");
+        assertEquals(lines.size(), converted.size());
+        assertEquals("import java.util.List;", converted.get(1));
+        assertEquals("import java.util.Map;", converted.get(2));
+        assertEquals("import java.util.*;", converted.get(3));
+        assertEquals("import static java.util.Collections.emptyList;", converted.get(4));
+        // only used by the removed branch
+        assertEquals("", converted.get(5));
+        assertEquals("", converted.get(6));
+        assertEquals("", converted.get(7));
+
+        // resources and the default aren't touched
+        assertEquals(lines.subList(0, 13), new PreProcessor(false, new HashMap<>(), new HashMap<>()).setPruneImports(true).convertSource(lines.subList(0, 13), "Test.json"));
+        assertEquals(lines.get(7), new PreProcessor(new HashMap<>()).convertSource(lines, "Test.java").get(7));
+
+        // javadoc and doclint need the imports of references
+        List<String> javadoc = Arrays.asList(
+                "package test;",
+                "import java.io.IOException;",
+                "import java.util.List;",
+                "import java.util.Map;",
+                "import java.util.Queue;",
+                "import java.util.Set;",
+                "/**",
+                " * Not a Queue, see {@link Set#addAll(List) the set}",
+                " * @see Map",
+                " */",
+                "class Test {",
+                "    /** @throws IOException never */",
+                "    void run() {}",
+                "}");
+        converted = new PreProcessor(new HashMap<>()).setPruneImports(true).convertSource(javadoc, "Test.java");
+        assertEquals(javadoc.subList(0, 4), converted.subList(0, 4));
+        assertEquals("", converted.get(4));
+        assertEquals(javadoc.get(5), converted.get(5));
+
+        List<String> kotlin = new ArrayList<>();
+        kotlin.add("package test");
+        kotlin.add("import net.example.Old as New");
+        kotlin.add("import net.example.Template");
+        kotlin.add("import net.example.getValue");
+        kotlin.add("import net.example.Unused");
+        kotlin.add("val value by New()");
+        kotlin.add("val text = \"${Template.NAME}\"");
+        converted = new PreProcessor(new HashMap<>()).setPruneImports(true).convertSource(kotlin, "Test.kt");
+        assertEquals(kotlin.subList(0, 4), converted.subList(0, 4));
+        assertEquals("", converted.get(4));
+    }
+
+    @Test
+    void testOutputStore(@TempDir Path dir) throws IOException {
+        ReMapper reMapper = new ReMapper(new HashMap<>());
+        Path store = dir.resolve("store");
+        PreProcessor stored = new PreProcessor(new HashMap<>()).setOutputStore(new OutputStore(store));
+
+        Path text = dir.resolve("Test.java");
+        Files.write(text, "//#if zero\ncode\n//#endif\n".getBytes(StandardCharsets.UTF_8));
+        Path unchanged = dir.resolve("Unchanged.java");
+        Files.write(unchanged, "code\n".getBytes(StandardCharsets.UTF_8));
+        byte[] bytes = {(byte) 0x89, 'P', 'N', 'G', (byte) 0xff, 0, '\n'};
+        Path binary = dir.resolve("test.png");
+        Files.write(binary, bytes);
+
+        // the same outputs of two targets
+        for (String target : Arrays.asList("a", "b")) {
+            stored.convertFile(reMapper, text.toFile(), dir.resolve(target + "/Test.java").toFile());
+            stored.convertFile(reMapper, unchanged.toFile(), dir.resolve(target + "/Unchanged.java").toFile());
+            stored.convertFile(reMapper, binary.toFile(), dir.resolve(target + "/test.png").toFile());
+            assertEquals("//#if zero\n//$$ code\n//#endif\n", new String(Files.readAllBytes(dir.resolve(target + "/Test.java")), StandardCharsets.UTF_8));
+            assertEquals("code\n", new String(Files.readAllBytes(dir.resolve(target + "/Unchanged.java")), StandardCharsets.UTF_8));
+            assertArrayEquals(bytes, Files.readAllBytes(dir.resolve(target + "/test.png")));
+        }
+
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(store)) {
+            walk.filter(Files::isRegularFile).forEach(entries::add);
+        }
+        // every content is stored once
+        assertEquals(3, entries.size());
+
+        // writing a target again replaces the link instead of changing the stored file
+        stored.convertFile(reMapper, unchanged.toFile(), dir.resolve("a/Test.java").toFile());
+        assertEquals("//#if zero\n//$$ code\n//#endif\n", new String(Files.readAllBytes(dir.resolve("b/Test.java")), StandardCharsets.UTF_8));
+
+        Object links;
+        try {
+            links = Files.getAttribute(dir.resolve("b/test.png"), "unix:nlink");
+        } catch (UnsupportedOperationException e) {
+            return;
+        }
+        assertEquals(3, links);
+
+        deleteRecursively(dir.resolve("a"));
+        OutputStore.prune(store);
+        assertTrue(Files.exists(entries.get(0)));
+        deleteRecursively(dir.resolve("b"));
+        OutputStore.prune(store);
+        for (Path entry : entries) {
+            assertFalse(Files.exists(entry), entry.toString());
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            List<Path> paths = new ArrayList<>();
+            walk.forEach(paths::add);
+            Collections.reverse(paths);
+            for (Path path : paths) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    void testOmitInactiveFiles(@TempDir Path dir) throws IOException {
+        ReMapper reMapper = new ReMapper(new HashMap<>());
+        PreProcessor omitting = new PreProcessor(new HashMap<>()).setOmitInactiveFiles(true);
+
+        String inactive = "/*\n * License\n */\n//#if zero\npackage test;\nclass Test {\n}\n//#endif\n";
+        Path java = dir.resolve("Test.java");
+        Files.write(java, inactive.getBytes(StandardCharsets.UTF_8));
+        omitting.convertFile(reMapper, java.toFile(), dir.resolve("out/Test.java").toFile());
+        assertFalse(Files.exists(dir.resolve("out/Test.java")));
+
+        // the package and imports alone don't define anything
+        Path kotlin = dir.resolve("Test.kt");
+        Files.write(kotlin, "package test\nimport test.Other\n//#if zero\nclass Test\n//#endif\n".getBytes(StandardCharsets.UTF_8));
+        omitting.convertFile(reMapper, kotlin.toFile(), dir.resolve("out/Test.kt").toFile());
+        assertFalse(Files.exists(dir.resolve("out/Test.kt")));
+
+        // active code, resources, package-info and the default keep the file
+        Path active = dir.resolve("Active.java");
+        Files.write(active, "//#if zero\nclass Old {}\n//#else\n//$$ class New {}\n//#endif\n".getBytes(StandardCharsets.UTF_8));
+        omitting.convertFile(reMapper, active.toFile(), dir.resolve("out/Active.java").toFile());
+        assertTrue(Files.exists(dir.resolve("out/Active.java")));
+        Path json = dir.resolve("test.json");
+        Files.write(json, "//#if zero\n\"a\": 1\n//#endif\n".getBytes(StandardCharsets.UTF_8));
+        omitting.convertFile(reMapper, json.toFile(), dir.resolve("out/test.json").toFile());
+        assertTrue(Files.exists(dir.resolve("out/test.json")));
+        Path packageInfo = dir.resolve("package-info.java");
+        Files.write(packageInfo, inactive.getBytes(StandardCharsets.UTF_8));
+        omitting.convertFile(reMapper, packageInfo.toFile(), dir.resolve("out/package-info.java").toFile());
+        assertTrue(Files.exists(dir.resolve("out/package-info.java")));
+        preProcessor.convertFile(reMapper, java.toFile(), dir.resolve("out/Test.java").toFile());
+        assertTrue(Files.exists(dir.resolve("out/Test.java")));
+    }
 }
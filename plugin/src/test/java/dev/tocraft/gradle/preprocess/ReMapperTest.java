@@ -0,0 +1,102 @@
+package dev.tocraft.gradle.preprocess;
+
+import dev.tocraft.gradle.preprocess.util.ReMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReMapperTest {
+    private static final Map<String, String> map = new LinkedHashMap<String, String>() {
+        {
+            put("Foo", "Bar");
+            put("net.old.Api", "net.neu.Api");
+        }
+    };
+
+    @Test
+    void testRegexRemap() {
+        ReMapper reMapper = new ReMapper(map);
+        assertEquals(new ArrayList<String>() {
+            {
+                add("Bar bar = new Bar(); // Bar");
+                add("String s = \"BarBaz\";");
+            }
+        }, reMapper.convertSource(new ArrayList<String>() {
+            {
+                add("Foo bar = new Foo(); // Foo");
+                add("String s = \"FooBaz\";");
+            }
+        }));
+    }
+
+    @Test
+    void testIdentifierRemap() {
+        ReMapper reMapper = new ReMapper(map, true, true);
+        assertEquals(new ArrayList<String>() {
+            {
+                add("import net.neu.Api;");
+                add("Bar bar = new Bar(); // Foo");
+                add("FooBaz baz = net.neu.Api.create(\"Foo\", 'F');");
+                add("/* Foo");
+                add("Foo */ Bar.run();");
+                add("//$$ Bar.run();");
+            }
+        }, reMapper.convertSource(new ArrayList<String>() {
+            {
+                add("import net.old.Api;");
+                add("Foo bar = new Foo(); // Foo");
+                add("FooBaz baz = net.old.Api.create(\"Foo\", 'F');");
+                add("/* Foo");
+                add("Foo */ Foo.run();");
+                add("//$$ Foo.run();");
+            }
+        }));
+    }
+
+    @Test
+    void testIdentifierRemapOnlyAtStart() {
+        ReMapper reMapper = new ReMapper(map, true, true);
+        assertEquals(new ArrayList<String>() {
+            {
+                add("com.example.net.old.Api api = net.neu.Api.create();");
+                add("Bar.Bar foo = bar.Bar;");
+            }
+        }, reMapper.convertSource(new ArrayList<String>() {
+            {
+                add("com.example.net.old.Api api = net.old.Api.create();");
+                add("Foo.Foo foo = bar.Foo;");
+            }
+        }));
+    }
+
+    @Test
+    void testSkipInactive() {
+        ReMapper reMapper = new ReMapper(map, true, false);
+        assertEquals(new ArrayList<String>() {
+            {
+                add("Bar.run();");
+                add("    //$$ Foo.run();");
+            }
+        }, reMapper.convertSource(new ArrayList<String>() {
+            {
+                add("Foo.run();");
+                add("    //$$ Foo.run();");
+            }
+        }));
+    }
+
+    @Test
+    void testFileRouting() {
+        ReMapper reMapper = new ReMapper(new LinkedHashMap<>(), Collections.singletonMap("json", map), false, true);
+        assertTrue(reMapper.forFile("Test.java").isEmpty());
+        assertFalse(reMapper.forFile("test.json").isEmpty());
+        assertSame(reMapper.forFile("test.json"), reMapper.forFile("other.json"));
+        assertSame(reMapper, reMapper.forFile("Test.java"));
+        assertEquals(Collections.singletonList("\"Bar\""), reMapper.forFile("test.json").convertSource(Collections.singletonList("\"Foo\"")));
+    }
+}
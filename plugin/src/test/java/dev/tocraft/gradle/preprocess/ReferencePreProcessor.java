@@ -0,0 +1,265 @@
+package dev.tocraft.gradle.preprocess;
+
+import dev.tocraft.gradle.preprocess.data.Keywords;
+import dev.tocraft.gradle.preprocess.util.ParseException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The preprocessor as it was before any optimization, kept unchanged as reference for {@link DifferentialTest}
+ */
+final class ReferencePreProcessor {
+    private final boolean removeComments;
+    private final Map<String, Object> vars;
+    private final Map<String, Keywords> keywordsMap;
+
+    /**
+     * @param removeComments if the directives and inactive lines shall be removed
+     * @param vars           the vars that shall be used for the custom if-statements
+     * @param keywordsMap    custom keywords, where the key is the file extension
+     */
+    ReferencePreProcessor(boolean removeComments, Map<String, Object> vars, Map<String, Keywords> keywordsMap) {
+        this.removeComments = removeComments;
+        this.vars = vars;
+        this.keywordsMap = keywordsMap;
+    }
+
+    private static final Pattern EXPR_PATTERN = Pattern.compile("(.+)(==|!=|<=|>=|<|>)(.+)");
+    private static final String OR_PATTERN = Pattern.quote("||");
+    private static final String AND_PATTERN = Pattern.quote("&&");
+
+    private String getVarValue(@Nullable String key) {
+        if (key != null) {
+            Object value = vars.get(key);
+            return value != null ? value.toString() : key;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @param condition will be read and evaluated
+     * @return the value of the evaluated condition
+     */
+    boolean evalExpression(String condition) {
+        return evalExpression(condition, -1, null);
+    }
+
+    /**
+     * @param condition  will be read and evaluated
+     * @param lineNumber required for error throwing
+     * @param fileName   required for error throwing
+     * @return the value of the evaluated condition
+     */
+    boolean evalExpression(@NotNull String condition, int lineNumber, @Nullable String fileName) {
+        String[] parts = condition.split(OR_PATTERN);
+        if (parts.length > 1) {
+            return Arrays.stream(parts).anyMatch(it -> evalExpression(it.trim(), lineNumber, fileName));
+        }
+        parts = condition.split(AND_PATTERN);
+        if (parts.length > 1) {
+            return Arrays.stream(parts).allMatch(it -> evalExpression(it.trim(), lineNumber, fileName));
+        }
+
+        Matcher matcher = EXPR_PATTERN.matcher(condition);
+        if (matcher.matches()) {
+            try {
+                int lhs = Integer.parseInt(getVarValue(matcher.group(1).trim()));
+                int rhs = Integer.parseInt(getVarValue(matcher.group(3).trim()));
+                boolean bool;
+                switch (matcher.group(2)) {
+                    case "==": {
+                        bool = lhs == rhs;
+                        break;
+                    }
+                    case "!=": {
+                        bool = lhs != rhs;
+                        break;
+                    }
+                    case ">=": {
+                        bool = lhs >= rhs;
+                        break;
+                    }
+                    case "<=": {
+                        bool = lhs <= rhs;
+                        break;
+                    }
+                    case ">": {
+                        bool = lhs > rhs;
+                        break;
+                    }
+                    case "<": {
+                        bool = lhs < rhs;
+                        break;
+                    }
+                    default: {
+                        throw new ParseException("Invalid Expression!", lineNumber, fileName);
+                    }
+                }
+                return bool;
+            } catch (NumberFormatException e) {
+                throw new ParseException(e.getMessage(), lineNumber, fileName);
+            }
+        }
+
+        String result = getVarValue(condition);
+
+        if (result != null && !result.equals(condition)) {
+            try {
+                return Integer.parseInt(result) != 0;
+            } catch (NumberFormatException ignored) {
+            }
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private boolean _evalCondition(@NotNull String condition, int lineNumber, String fileName) {
+        if (!condition.startsWith(" ")) {
+            throw new ParseException("Expected space before condition!", lineNumber, fileName);
+        } else {
+            return evalExpression(condition.trim(), lineNumber, fileName);
+        }
+    }
+
+    /**
+     * @param lines the file, already read as lines
+     * @return the preprocessed lines
+     */
+    List<String> convertSource(List<String> lines) {
+        return convertSource(lines, null);
+    }
+
+    /**
+     * @param lines    the file, already read as lines
+     * @param fileName the file name for error throwing
+     * @return the preprocessed lines
+     */
+    List<String> convertSource(@NotNull List<String> lines, @Nullable String fileName) {
+        Stack<IfStackEntry> stack = new Stack<>();
+        Stack<Integer> indentStack = new Stack<>();
+        boolean active = true;
+        int n = 0;
+
+        Keywords keywords = keywordsMap.getOrDefault(getExtension(fileName), Keywords.DEFAULT_KEYWORDS);
+
+        List<String> mappedLines = new ArrayList<>();
+        for (final String line : lines) {
+            n++;
+
+            String trimmed = line.trim();
+            int indentation = line.length() - line.trim().length();
+            if (trimmed.startsWith(keywords.IF())) {
+                boolean result = _evalCondition(trimmed.substring(keywords.IF().length()), n, fileName);
+                stack.push(new IfStackEntry(result, false, result));
+                indentStack.push(indentation);
+                active = active && result;
+                if (!removeComments) {
+                    mappedLines.add(line);
+                }
+            } else if (trimmed.startsWith(keywords.ELSEIF())) {
+                if (stack.isEmpty()) {
+                    throw new ParseException("elseif without If-Statement!", n, fileName);
+                }
+                if (stack.lastElement().elseFound) {
+                    throw new ParseException("elseif after else!", n, fileName);
+                }
+
+                indentStack.pop();
+                indentStack.push(indentation);
+
+                if (stack.lastElement().trueFound) {
+                    IfStackEntry last = stack.pop();
+                    stack.push(new IfStackEntry(false, last.elseFound, last.trueFound));
+                    active = false;
+                } else {
+                    boolean result = _evalCondition(trimmed.substring(keywords.ELSEIF().length()), n, fileName);
+                    stack.pop();
+                    stack.push(new IfStackEntry(result, false, result));
+                    active = stack.stream().allMatch(it -> it.currentValue);
+                }
+                if (!removeComments) {
+                    mappedLines.add(line);
+                }
+            } else if (trimmed.startsWith(keywords.ELSE())) {
+                if (stack.isEmpty()) {
+                    throw new ParseException("Unexpected else", n, fileName);
+                }
+                IfStackEntry entry = stack.pop();
+                stack.push(new IfStackEntry(!entry.trueFound, true, entry.trueFound));
+                indentStack.pop();
+                indentStack.push(indentation);
+                active = stack.stream().allMatch(it -> it.currentValue);
+                if (!removeComments) {
+                    mappedLines.add(line);
+                }
+            } else if (trimmed.startsWith(keywords.ENDIF())) {
+                if (stack.isEmpty()) {
+                    throw new ParseException("endif without If-Statement!", n, fileName);
+                }
+                stack.pop();
+                indentStack.pop();
+                active = stack.stream().allMatch(it -> it.currentValue);
+                if (!removeComments) {
+                    mappedLines.add(line);
+                }
+            } else {
+                if (active) {
+                    if (trimmed.startsWith(keywords.EVAL())) {
+                        mappedLines.add(line.replaceFirst(Matcher.quoteReplacement(keywords.EVAL()) + " ?", ""));
+                    } else {
+                        mappedLines.add(line);
+                    }
+                } else if (!removeComments) {
+                    int currIndent = indentStack.peek();
+                    if (trimmed.isEmpty()) {
+                        mappedLines.add(indentation(currIndent) + keywords.EVAL());
+                    } else if (!trimmed.startsWith(keywords.EVAL()) && currIndent <= indentation) {
+                        mappedLines.add(indentation(currIndent) + keywords.EVAL() + " " + line.substring(currIndent));
+                    } else {
+                        mappedLines.add(line);
+                    }
+                }
+            }
+        }
+
+        if (!stack.isEmpty()) {
+            throw new ParseException("Missing endif!", n, fileName);
+        } else {
+            return mappedLines;
+        }
+    }
+
+    private static final class IfStackEntry {
+        private final boolean currentValue;
+        private final boolean elseFound;
+        private final boolean trueFound;
+
+        public IfStackEntry(boolean currentValue, boolean elseFound, boolean trueFound) {
+            this.currentValue = currentValue;
+            this.elseFound = elseFound;
+            this.trueFound = trueFound;
+        }
+
+    }
+
+    private static @NotNull String getExtension(@Nullable String fileName) {
+        String extension = "";
+        if (fileName != null) {
+            int i = fileName.lastIndexOf('.');
+            if (i > 0) {
+                extension = fileName.substring(i + 1);
+            }
+        }
+        return extension.toLowerCase().trim();
+    }
+
+    private static @NotNull String indentation(int n) {
+        return new String(new char[n]).replace("\0", " ");
+    }
+}
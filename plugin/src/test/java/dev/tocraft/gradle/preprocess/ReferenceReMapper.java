@@ -0,0 +1,35 @@
+package dev.tocraft.gradle.preprocess;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The regex ReMapper as it was before any optimization, kept unchanged as reference for {@link DifferentialTest}
+ */
+final class ReferenceReMapper {
+    private final Map<String, String> map;
+
+    ReferenceReMapper(Map<String, String> map) {
+        this.map = map;
+    }
+
+    /**
+     * @param lines    the file, already read as lines
+     * @return the preprocessed lines
+     */
+    List<String> convertSource(@NotNull List<String> lines) {
+        List<String> rmLines = new ArrayList<>();
+
+        for (String line : lines) {
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                line = line.replaceAll(entry.getKey(), entry.getValue());
+            }
+            rmLines.add(line);
+        }
+
+        return rmLines;
+    }
+}
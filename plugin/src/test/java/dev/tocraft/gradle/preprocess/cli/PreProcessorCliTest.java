@@ -0,0 +1,118 @@
+package dev.tocraft.gradle.preprocess.cli;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PreProcessorCliTest {
+    @Test
+    void testArguments() {
+        PreProcessorCli.Arguments arguments = PreProcessorCli.Arguments.parse(new String[]{"-c", "config.properties", "src/main", "--output", "out", "-t", "3", "src/extra"});
+        assertEquals(Paths.get("config.properties"), arguments.config);
+        assertEquals(Paths.get("out"), arguments.output);
+        assertEquals(3, arguments.threads);
+        assertEquals(Arrays.asList(Paths.get("src/main"), Paths.get("src/extra")), arguments.sources);
+        assertFalse(arguments.train);
+        assertFalse(arguments.help);
+
+        // without options, the sources are converted in place
+        PreProcessorCli.Arguments defaults = PreProcessorCli.Arguments.parse(new String[]{"src"});
+        assertNull(defaults.config);
+        assertNull(defaults.output);
+        assertEquals(Runtime.getRuntime().availableProcessors(), defaults.threads);
+
+        assertTrue(PreProcessorCli.Arguments.parse(new String[]{"--train"}).train);
+        assertTrue(PreProcessorCli.Arguments.parse(new String[]{"-h"}).help);
+
+        assertThrows(IllegalArgumentException.class, () -> PreProcessorCli.Arguments.parse(new String[]{"src", "--config"}));
+        assertThrows(IllegalArgumentException.class, () -> PreProcessorCli.Arguments.parse(new String[]{"-t", "many", "src"}));
+    }
+
+    @Test
+    void testReadConfig(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("config.properties");
+        Files.write(file, Arrays.asList(
+                "# vars",
+                "var.MC=1.20.1",
+                "var.FABRIC = true",
+                "! keywords",
+                "keywords.json=//#if,//#elseif,//#else,//#endif,//$$",
+                "remap.net.minecraft.Second=net.minecraft.New",
+                "remap.net.minecraft.First\\",
+                "    =net.minecraft.Other",
+                "remap.with\\ space=escaped\\u0021",
+                "fileRemap.json.old_key=new_key",
+                "",
+                "identifierRemap=true"), StandardCharsets.UTF_8);
+
+        Map<String, String> config = PreProcessorCli.readConfig(file);
+        // the entries stay in the order of the file, since the remap entries are applied in this order
+        assertEquals(Arrays.asList("var.MC", "var.FABRIC", "keywords.json", "remap.net.minecraft.Second", "remap.net.minecraft.First", "remap.with space", "fileRemap.json.old_key", "identifierRemap"), new ArrayList<>(config.keySet()));
+        assertEquals("1.20.1", config.get("var.MC"));
+        assertEquals("true", config.get("var.FABRIC"));
+        assertEquals("//#if,//#elseif,//#else,//#endif,//$$", config.get("keywords.json"));
+        assertEquals("net.minecraft.Other", config.get("remap.net.minecraft.First"));
+        assertEquals("escaped!", config.get("remap.with space"));
+
+        // every section is accepted
+        new PreProcessorCli(config);
+
+        Map<String, String> unknown = new LinkedHashMap<>();
+        unknown.put("vars.MC", "1");
+        assertThrows(IllegalArgumentException.class, () -> new PreProcessorCli(unknown));
+        Map<String, String> keywords = new LinkedHashMap<>();
+        keywords.put("keywords.json", "//#if,//#endif");
+        assertThrows(IllegalArgumentException.class, () -> new PreProcessorCli(keywords));
+        Map<String, String> fileRemap = new LinkedHashMap<>();
+        fileRemap.put("fileRemap.json", "new_key");
+        assertThrows(IllegalArgumentException.class, () -> new PreProcessorCli(fileRemap));
+    }
+
+    @Test
+    void testRun(@TempDir Path dir) throws IOException, InterruptedException {
+        Path first = dir.resolve("first");
+        Path second = dir.resolve("second");
+        Files.createDirectories(first.resolve("pkg"));
+        Files.createDirectories(second.resolve("data"));
+        Files.write(first.resolve("pkg/Main.java"), Arrays.asList(
+                "//#if MC > 11904",
+                "import net.minecraft.Old;",
+                "//#else",
+                "//$$ import net.minecraft.Legacy;",
+                "//#endif"), StandardCharsets.UTF_8);
+        // the first source wins
+        Files.createDirectories(second.resolve("pkg"));
+        Files.write(second.resolve("pkg/Main.java"), Collections.singletonList("second"), StandardCharsets.UTF_8);
+        Files.write(second.resolve("data/test.json"), Arrays.asList(
+                "{",
+                "  #if FABRIC",
+                "  \"old_key\": true",
+                "  #endif",
+                "}"), StandardCharsets.UTF_8);
+        Files.write(second.resolve("data/Broken.java"), Collections.singletonList("//#if MC"), StandardCharsets.UTF_8);
+
+        Map<String, String> config = new LinkedHashMap<>();
+        config.put("var.MC", "12001");
+        config.put("var.FABRIC", "0");
+        config.put("keywords.json", "#if,#elseif,#else,#endif,#$$");
+        config.put("remap.net.minecraft.Old", "net.minecraft.New");
+        config.put("fileRemap.json.old_key", "new_key");
+        Path out = dir.resolve("out");
+        List<String> errors = new PreProcessorCli(config).run(Arrays.asList(first, second), out, 2);
+
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).startsWith(second.resolve("data/Broken.java") + ": "), errors.get(0));
+        assertEquals(Arrays.asList("//#if MC > 11904", "import net.minecraft.New;", "//#else", "//$$ import net.minecraft.Legacy;", "//#endif"), Files.readAllLines(out.resolve("pkg/Main.java")));
+        assertEquals(Arrays.asList("{", "  #if FABRIC", "  #$$ \"new_key\": true", "  #endif", "}"), Files.readAllLines(out.resolve("data/test.json")));
+        // the sources aren't changed
+        assertEquals("import net.minecraft.Old;", Files.readAllLines(first.resolve("pkg/Main.java")).get(1));
+    }
+}